@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Settings-wide executor for background work, with a bounded number of threads.
+ *
+ * Tasks are run by priority, then in submission order: work whose result is visible on screen
+ * first, then prefetching, then maintenance. The threads run below the priority of the UI thread,
+ * lower still for the lower priorities.
+ *
+ * Work belonging to a screen should be submitted through a {@link Scope} cancelled when the screen
+ * is destroyed, such as {@link SettingsPreferenceFragment#getBackgroundScope()}.
+ */
+public final class BackgroundExecutor {
+
+    /** Work whose result is shown on screen. */
+    public static final int PRIORITY_VISIBLE = 0;
+    /** Work for what is likely to be shown next. */
+    public static final int PRIORITY_PREFETCH = 1;
+    /** Work nobody is waiting for, such as persisting caches. */
+    public static final int PRIORITY_MAINTENANCE = 2;
+
+    private static final int[] THREAD_PRIORITIES = {
+            Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_LOWEST };
+
+    // Leave a core to the UI thread
+    private static final int THREAD_COUNT =
+            Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static BackgroundExecutor sInstance;
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "SettingsBackground #" + mCount.getAndIncrement());
+        }
+    };
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * A group of tasks cancelled together, for tying background work to the lifecycle of a
+     * screen. Tasks submitted once the scope is cancelled are cancelled right away.
+     */
+    public final class Scope {
+        private final Set<Future<?>> mTasks = new HashSet<Future<?>>();
+        private boolean mCancelled;
+
+        private Scope() {
+        }
+
+        public Future<?> execute(int priority, Runnable task) {
+            return enqueue(new Task<Void>(priority, task, null, this));
+        }
+
+        public <T> Future<T> submit(int priority, Callable<T> task) {
+            return enqueue(new Task<T>(priority, task, this));
+        }
+
+        /**
+         * Return an executor running the tasks in this scope with the given priority, for
+         * instance for {@link android.os.AsyncTask#executeOnExecutor}.
+         */
+        public Executor getExecutor(final int priority) {
+            return new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    Scope.this.execute(priority, command);
+                }
+            };
+        }
+
+        /**
+         * Cancel the pending tasks and interrupt the running ones.
+         */
+        public void cancel() {
+            final List<Future<?>> tasks;
+            synchronized (this) {
+                mCancelled = true;
+                tasks = new ArrayList<Future<?>>(mTasks);
+                mTasks.clear();
+            }
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private synchronized boolean add(Future<?> task) {
+            if (mCancelled) {
+                return false;
+            }
+            mTasks.add(task);
+            return true;
+        }
+
+        private synchronized void remove(Future<?> task) {
+            mTasks.remove(task);
+        }
+    }
+
+    private final class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final int mPriority;
+        private final long mSequence;
+        private final Scope mScope;
+
+        Task(int priority, Callable<T> callable, Scope scope) {
+            super(callable);
+            mPriority = checkPriority(priority);
+            mSequence = BackgroundExecutor.this.mSequence.getAndIncrement();
+            mScope = scope;
+        }
+
+        Task(int priority, Runnable runnable, T result, Scope scope) {
+            super(runnable, result);
+            mPriority = checkPriority(priority);
+            mSequence = BackgroundExecutor.this.mSequence.getAndIncrement();
+            mScope = scope;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(THREAD_PRIORITIES[mPriority]);
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            if (mScope != null) {
+                mScope.remove(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    public static synchronized BackgroundExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new BackgroundExecutor();
+        }
+        return sInstance;
+    }
+
+    private BackgroundExecutor() {
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), sThreadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public Future<?> execute(int priority, Runnable task) {
+        return enqueue(new Task<Void>(priority, task, null, null));
+    }
+
+    public <T> Future<T> submit(int priority, Callable<T> task) {
+        return enqueue(new Task<T>(priority, task, null));
+    }
+
+    /**
+     * Return an executor running the tasks with the given priority, for instance for
+     * {@link android.os.AsyncTask#executeOnExecutor}.
+     */
+    public Executor getExecutor(final int priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                BackgroundExecutor.this.execute(priority, command);
+            }
+        };
+    }
+
+    /**
+     * Return a new scope for cancelling a group of tasks together.
+     */
+    public Scope newScope() {
+        return new Scope();
+    }
+
+    private <T> Future<T> enqueue(Task<T> task) {
+        if (task.mScope != null && !task.mScope.add(task)) {
+            task.cancel(false);
+            return task;
+        }
+        mExecutor.execute(task);
+        return task;
+    }
+
+    private static int checkPriority(int priority) {
+        if (priority < PRIORITY_VISIBLE || priority > PRIORITY_MAINTENANCE) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+        return priority;
+    }
+}
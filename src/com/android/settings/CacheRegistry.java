@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Registry of the in-memory caches of Settings, trimmed when the system runs low on memory.
+ *
+ * Caches register themselves once created and are only weakly referenced, so that the caches of a
+ * screen go away with it: the owner of a cache must keep a reference to the registered
+ * {@link TrimmableCache}. Their sizes are reported by {@link #dump(PrintWriter, String)}.
+ */
+public final class CacheRegistry implements ComponentCallbacks2 {
+
+    private static final String LOG_TAG = "CacheRegistry";
+
+    private static CacheRegistry sInstance;
+
+    // Registered caches and their names
+    private final WeakHashMap<TrimmableCache, String> mCaches =
+            new WeakHashMap<TrimmableCache, String>();
+
+    /**
+     * A cache which can release its entries.
+     *
+     * Caches that only serve a screen should be emptied from
+     * {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}, when Settings is no longer visible.
+     * Caches also useful while a screen is visible should be emptied from
+     * {@link ComponentCallbacks2#TRIM_MEMORY_RUNNING_LOW}.
+     */
+    public interface TrimmableCache {
+        /**
+         * Release memory according to a {@link ComponentCallbacks2} trim level. Called on the
+         * main thread.
+         */
+        void trimMemory(int level);
+
+        /**
+         * Return the number of entries in the cache.
+         */
+        int size();
+    }
+
+    public static synchronized CacheRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CacheRegistry(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CacheRegistry(Context context) {
+        context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Register a cache under the given name. Registering the same cache again has no effect.
+     */
+    public synchronized void register(String name, TrimmableCache cache) {
+        if (!mCaches.containsKey(cache)) {
+            mCaches.put(cache, name);
+        }
+    }
+
+    public synchronized void unregister(TrimmableCache cache) {
+        mCaches.remove(cache);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int released = 0;
+        for (Map.Entry<TrimmableCache, String> entry : getCaches()) {
+            final TrimmableCache cache = entry.getKey();
+            final int size = cache.size();
+            try {
+                cache.trimMemory(level);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Cannot trim " + entry.getValue(), e);
+            }
+            released += Math.max(0, size - cache.size());
+        }
+        if (released > 0) {
+            Log.d(LOG_TAG, "Released " + released + " entries at trim level " + level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Dump the number of entries of each registered cache.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.println("Caches (entries):");
+        int total = 0;
+        for (Map.Entry<TrimmableCache, String> entry : getCaches()) {
+            final int size = entry.getKey().size();
+            total += size;
+            pw.print(prefix); pw.print("  "); pw.print(entry.getValue());
+            pw.print(": "); pw.println(size);
+        }
+        pw.print(prefix); pw.print("  total: "); pw.println(total);
+    }
+
+    private synchronized List<Map.Entry<TrimmableCache, String>> getCaches() {
+        final List<Map.Entry<TrimmableCache, String>> caches =
+                new ArrayList<Map.Entry<TrimmableCache, String>>(mCaches.size());
+        for (Map.Entry<TrimmableCache, String> entry : mCaches.entrySet()) {
+            // Copied as the entries of a WeakHashMap are only valid while iterating
+            final TrimmableCache cache = entry.getKey();
+            if (cache != null) {
+                caches.add(new AbstractMap.SimpleImmutableEntry<TrimmableCache, String>(cache,
+                        entry.getValue()));
+            }
+        }
+        return caches;
+    }
+}
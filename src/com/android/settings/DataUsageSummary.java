@@ -127,6 +127,7 @@ import android.widget.TabWidget;
 import android.widget.TextView;
 
 import com.android.internal.telephony.PhoneConstants;
+import com.android.settings.dashboard.TileSummaryProvider;
 import com.android.settings.drawable.InsetBoundsDrawable;
 import com.android.settings.net.ChartData;
 import com.android.settings.net.ChartDataLoader;
@@ -2632,6 +2633,45 @@ public class DataUsageSummary extends HighlightingFragment implements Indexable
         summary.setText(string);
     }
 
+    /**
+     * Show the cellular data used during the current cycle in the dashboard.
+     */
+    public static final TileSummaryProvider SUMMARY_PROVIDER = new TileSummaryProvider() {
+        @Override
+        public CharSequence getSummary(Context context) {
+            if (!hasReadyMobileRadio(context)) {
+                return null;
+            }
+            final NetworkTemplate template = buildTemplateMobileAll(
+                    getActiveSubscriberId(context));
+            final NetworkPolicyEditor policyEditor =
+                    new NetworkPolicyEditor(NetworkPolicyManager.from(context));
+            policyEditor.read();
+            final NetworkPolicy policy = policyEditor.getPolicy(template);
+            if (policy == null) {
+                return null;
+            }
+            final long cycleEnd = computeNextCycleBoundary(System.currentTimeMillis(), policy);
+            final long cycleStart = computeLastCycleBoundary(cycleEnd, policy);
+
+            final INetworkStatsService statsService = INetworkStatsService.Stub.asInterface(
+                    ServiceManager.getService(Context.NETWORK_STATS_SERVICE));
+            INetworkStatsSession statsSession = null;
+            try {
+                statsSession = statsService.openSession();
+                final long totalBytes = statsSession.getSummaryForNetwork(template, cycleStart,
+                        cycleEnd).getTotalBytes();
+                return context.getString(R.string.dashboard_data_usage_summary,
+                        Formatter.formatFileSize(context, totalBytes));
+            } catch (RemoteException e) {
+                Log.w(TAG, "Cannot get the data usage of the current cycle", e);
+                return null;
+            } finally {
+                TrafficStats.closeQuietly(statsSession);
+            }
+        }
+    };
+
     /**
      * For search
      */
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemProperties;
+
+import dalvik.system.BlockGuard;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Records the disk accesses and the binder calls done on the main thread, attributed to the
+ * screen shown and to their stack, so that the screens causing jank can be found and fixed.
+ *
+ * It is off by default, and can only be turned on for debuggable builds, before Settings starts:
+ * adb shell setprop debug.settings.track_main_io 1
+ * The report is then dumped with:
+ * adb shell dumpsys activity top
+ *
+ * Disk reads and writes are all seen, through a {@link BlockGuard} policy, unless
+ * {@link android.os.StrictMode} is enabled on the main thread: its own policy must stay the
+ * current one for it to work, so it is never wrapped. Binder calls are found by sampling the
+ * main thread while a Settings activity is resumed: only the calls blocking it for about a
+ * sampling interval or more are reliably seen, and the time they block it is an estimate.
+ */
+public final class MainThreadIoTracker {
+
+    private static final String PROPERTY_ENABLED = "debug.settings.track_main_io";
+
+    private static final int TYPE_DISK_READ = 0;
+    private static final int TYPE_DISK_WRITE = 1;
+    private static final int TYPE_BINDER = 2;
+    private static final String[] TYPE_NAMES = { "disk read", "disk write", "binder call" };
+
+    private static final long SAMPLING_INTERVAL_MS = 10;
+    private static final String BINDER_PROXY_CLASS = "android.os.BinderProxy";
+
+    private static final int MAX_STACK_DEPTH = 12;
+    // Past this number of distinct stacks, new ones are only counted
+    private static final int MAX_SITES = 500;
+
+    private static MainThreadIoTracker sInstance;
+
+    private final boolean mEnabled =
+            Build.IS_DEBUGGABLE && SystemProperties.getBoolean(PROPERTY_ENABLED, false);
+    private final Thread mMainThread = Looper.getMainLooper().getThread();
+
+    // Sites by screen, type and stack
+    private final HashMap<String, Site> mSites = new HashMap<String, Site>();
+    private int mDroppedCount;
+
+    // Screen shown, set on the main thread
+    private volatile String mScreen = "(none)";
+
+    // Only touched on the main thread
+    private int mResumedCount;
+
+    private Handler mSamplerHandler;
+    // Only touched by the sampler
+    private StackTraceElement[] mLastSampledStack;
+
+    private static final class Site {
+        final int type;
+        final String screen;
+        final StackTraceElement[] stack;
+        int count;
+        long blockedMillis;
+
+        Site(int type, String screen, StackTraceElement[] stack) {
+            this.type = type;
+            this.screen = screen;
+            this.stack = stack;
+        }
+    }
+
+    /**
+     * Records the disk accesses of the main thread, and forwards them to the lax policy it
+     * replaces.
+     */
+    private final class TrackingPolicy implements BlockGuard.Policy {
+        final BlockGuard.Policy mPolicy;
+
+        TrackingPolicy(BlockGuard.Policy policy) {
+            mPolicy = policy;
+        }
+
+        @Override
+        public void onWriteToDisk() {
+            record(TYPE_DISK_WRITE, new Throwable().getStackTrace(), 1, 0);
+            mPolicy.onWriteToDisk();
+        }
+
+        @Override
+        public void onReadFromDisk() {
+            record(TYPE_DISK_READ, new Throwable().getStackTrace(), 1, 0);
+            mPolicy.onReadFromDisk();
+        }
+
+        @Override
+        public void onNetwork() {
+            mPolicy.onNetwork();
+        }
+
+        @Override
+        public int getPolicyMask() {
+            return mPolicy.getPolicyMask();
+        }
+    }
+
+    private final Runnable mSampler = new Runnable() {
+        @Override
+        public void run() {
+            sampleMainThread();
+            mSamplerHandler.postDelayed(this, SAMPLING_INTERVAL_MS);
+        }
+    };
+
+    public static synchronized MainThreadIoTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new MainThreadIoTracker();
+        }
+        return sInstance;
+    }
+
+    private MainThreadIoTracker() {
+    }
+
+    /**
+     * Attribute what the main thread does from now on to the given screen. Must be called on the
+     * main thread.
+     */
+    public void setScreen(String screen) {
+        if (!mEnabled) {
+            return;
+        }
+        mScreen = screen;
+
+        // Only when StrictMode is off: it checks that its own policy is the current one, and
+        // replaces ours when it is enabled later on
+        final BlockGuard.Policy policy = BlockGuard.getThreadPolicy();
+        if (policy == BlockGuard.LAX_POLICY) {
+            BlockGuard.setThreadPolicy(new TrackingPolicy(policy));
+        }
+    }
+
+    /**
+     * Must be called on the main thread when a Settings activity is resumed.
+     */
+    public void onActivityResumed() {
+        if (!mEnabled) {
+            return;
+        }
+        if (mResumedCount++ == 0) {
+            if (mSamplerHandler == null) {
+                final HandlerThread thread = new HandlerThread("MainThreadIoSampler",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                mSamplerHandler = new Handler(thread.getLooper());
+            }
+            mSamplerHandler.post(mSampler);
+        }
+    }
+
+    /**
+     * Must be called on the main thread when a Settings activity is paused.
+     */
+    public void onActivityPaused() {
+        if (!mEnabled || mResumedCount == 0) {
+            return;
+        }
+        if (--mResumedCount == 0) {
+            mSamplerHandler.removeCallbacks(mSampler);
+        }
+    }
+
+    private void sampleMainThread() {
+        final StackTraceElement[] stack = mMainThread.getStackTrace();
+        if (stack.length == 0 || !BINDER_PROXY_CLASS.equals(stack[0].getClassName())) {
+            mLastSampledStack = null;
+            return;
+        }
+        // Most likely the same call, still blocking: only its time is counted
+        final boolean sameCall = Arrays.equals(stack, mLastSampledStack);
+        mLastSampledStack = stack;
+        record(TYPE_BINDER, stack, sameCall ? 0 : 1, SAMPLING_INTERVAL_MS);
+    }
+
+    private void record(int type, StackTraceElement[] fullStack, int count, long blockedMillis) {
+        final StackTraceElement[] stack = trimStack(fullStack);
+        final String screen = mScreen;
+        final String key = type + "|" + screen + "|" + Arrays.toString(stack);
+        synchronized (this) {
+            Site site = mSites.get(key);
+            if (site == null) {
+                if (mSites.size() >= MAX_SITES) {
+                    mDroppedCount += count;
+                    return;
+                }
+                site = new Site(type, screen, stack);
+                mSites.put(key, site);
+            }
+            site.count += count;
+            site.blockedMillis += blockedMillis;
+        }
+    }
+
+    /**
+     * Drop the frames of this class and of the thread policies, and keep the innermost frames.
+     */
+    private static StackTraceElement[] trimStack(StackTraceElement[] stack) {
+        int start = 0;
+        while (start < stack.length) {
+            final String className = stack[start].getClassName();
+            if (!className.startsWith(MainThreadIoTracker.class.getName())
+                    && !className.startsWith("libcore.io.BlockGuardOs")) {
+                break;
+            }
+            start++;
+        }
+        return Arrays.copyOfRange(stack, start, Math.min(stack.length, start + MAX_STACK_DEPTH));
+    }
+
+    /**
+     * Dump what has been recorded, by screen. Must be called on the main thread.
+     */
+    public void dump(PrintWriter pw, String prefix) {
+        if (!mEnabled) {
+            return;
+        }
+        final HashMap<String, List<Site>> sitesByScreen = new HashMap<String, List<Site>>();
+        final HashMap<String, int[]> countsByScreen = new HashMap<String, int[]>();
+        final int droppedCount;
+        synchronized (this) {
+            for (Site site : mSites.values()) {
+                List<Site> sites = sitesByScreen.get(site.screen);
+                int[] counts = countsByScreen.get(site.screen);
+                if (sites == null) {
+                    sites = new ArrayList<Site>();
+                    sitesByScreen.put(site.screen, sites);
+                    counts = new int[TYPE_NAMES.length];
+                    countsByScreen.put(site.screen, counts);
+                }
+                sites.add(site);
+                counts[site.type] += site.count;
+            }
+            droppedCount = mDroppedCount;
+        }
+
+        final List<String> screens = new ArrayList<String>(sitesByScreen.keySet());
+        Collections.sort(screens, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return total(countsByScreen.get(rhs)) - total(countsByScreen.get(lhs));
+            }
+        });
+
+        pw.print(prefix); pw.println("Main thread I/O:");
+        if (!(BlockGuard.getThreadPolicy() instanceof TrackingPolicy)) {
+            pw.print(prefix); pw.println("  Disk accesses not tracked, StrictMode is enabled");
+        }
+        for (String screen : screens) {
+            final int[] counts = countsByScreen.get(screen);
+            pw.print(prefix); pw.print("  "); pw.print(screen);
+            pw.print(": disk reads="); pw.print(counts[TYPE_DISK_READ]);
+            pw.print(" disk writes="); pw.print(counts[TYPE_DISK_WRITE]);
+            pw.print(" binder calls="); pw.println(counts[TYPE_BINDER]);
+
+            final List<Site> sites = sitesByScreen.get(screen);
+            Collections.sort(sites, new Comparator<Site>() {
+                @Override
+                public int compare(Site lhs, Site rhs) {
+                    return rhs.count - lhs.count;
+                }
+            });
+            for (Site site : sites) {
+                pw.print(prefix); pw.print("    "); pw.print(site.count); pw.print(" x ");
+                pw.print(TYPE_NAMES[site.type]);
+                if (site.type == TYPE_BINDER) {
+                    pw.print(", blocked ~"); pw.print(site.blockedMillis); pw.print(" ms");
+                }
+                pw.println();
+                for (StackTraceElement element : site.stack) {
+                    pw.print(prefix); pw.print("      at "); pw.println(element);
+                }
+            }
+        }
+        if (droppedCount > 0) {
+            pw.print(prefix); pw.print("  Not recorded, too many stacks: ");
+            pw.println(droppedCount);
+        }
+    }
+
+    private static int total(int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
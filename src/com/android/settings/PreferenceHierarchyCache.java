@@ -0,0 +1,690 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.preference.CheckBoxPreference;
+import android.preference.DialogPreference;
+import android.preference.ListPreference;
+import android.preference.Preference;
+import android.preference.PreferenceCategory;
+import android.preference.PreferenceGroup;
+import android.preference.PreferenceManager;
+import android.preference.PreferenceScreen;
+import android.preference.SwitchPreference;
+import android.preference.TwoStatePreference;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.Xml;
+import android.view.InflateException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cache of the preference hierarchies parsed from XML resources, for inflating them again
+ * without parsing the XML and resolving the attributes through reflection.
+ *
+ * The hierarchy is parsed in the background the first time a resource is inflated (the XML is
+ * inflated as usual meanwhile), and the next inflations build the preferences from the parsed
+ * model with their setters. Preference classes and attributes outside of the ones known to the
+ * model are still constructed from the XML attributes, at the position of their element. The
+ * models are only valid for the configuration they have been parsed with.
+ */
+public final class PreferenceHierarchyCache {
+
+    private static final String LOG_TAG = "PreferenceHierarchyCache";
+
+    private static final String ANDROID_NAMESPACE = "http://schemas.android.com/apk/res/android";
+    private static final String DEFAULT_PACKAGE = "android.preference.";
+    private static final String TAG_INTENT = "intent";
+    private static final String TAG_EXTRA = "extra";
+
+    // Not layout nor widgetLayout: setting them after construction keeps the preference views
+    // from being recycled, the preferences using them are constructed from their attributes.
+    private static final Set<Integer> PREFERENCE_ATTRIBUTES = new HashSet<Integer>(Arrays.asList(
+            android.R.attr.key,
+            android.R.attr.title,
+            android.R.attr.summary,
+            android.R.attr.fragment,
+            android.R.attr.dependency,
+            android.R.attr.persistent,
+            android.R.attr.enabled,
+            android.R.attr.selectable,
+            android.R.attr.icon,
+            android.R.attr.order));
+
+    private static final Set<Integer> TWO_STATE_PREFERENCE_ATTRIBUTES = new HashSet<Integer>(
+            PREFERENCE_ATTRIBUTES);
+    private static final Set<Integer> LIST_PREFERENCE_ATTRIBUTES = new HashSet<Integer>(
+            PREFERENCE_ATTRIBUTES);
+
+    static {
+        TWO_STATE_PREFERENCE_ATTRIBUTES.addAll(Arrays.asList(
+                android.R.attr.summaryOn,
+                android.R.attr.summaryOff,
+                android.R.attr.disableDependentsState,
+                android.R.attr.defaultValue));
+
+        LIST_PREFERENCE_ATTRIBUTES.addAll(Arrays.asList(
+                android.R.attr.dialogTitle,
+                android.R.attr.dialogMessage,
+                android.R.attr.positiveButtonText,
+                android.R.attr.negativeButtonText,
+                android.R.attr.entries,
+                android.R.attr.entryValues,
+                android.R.attr.defaultValue));
+    }
+
+    private static final Object sLock = new Object();
+    private static Configuration sConfiguration;
+    // Incremented whenever the models are dropped, so that stale parsings are not kept
+    private static int sGeneration;
+    private static final SparseArray<Node> sModels = new SparseArray<Node>();
+    private static final SparseBooleanArray sPendingResources = new SparseBooleanArray();
+    private static final SparseBooleanArray sUnsupportedResources = new SparseBooleanArray();
+
+    private static final HashMap<String, Constructor<? extends Preference>> sConstructors =
+            new HashMap<String, Constructor<? extends Preference>>();
+
+    // PreferenceManager.setNoCommit(), null if it cannot be accessed
+    private static Method sSetNoCommit;
+    private static boolean sSetNoCommitResolved;
+
+    // The models are parsed again when missing, so they can go when memory runs low
+    private static final CacheRegistry.TrimmableCache sModelsTrimmer =
+            new CacheRegistry.TrimmableCache() {
+        @Override
+        public void trimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                synchronized (sLock) {
+                    sModels.clear();
+                    sGeneration++;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (sLock) {
+                return sModels.size();
+            }
+        }
+    };
+
+    /**
+     * The model of a preference XML element.
+     */
+    private static final class Node {
+        final String className;
+        // Index of the element among all the start tags of the document
+        final int elementIndex;
+        // Attributes by id: resource ids (Integer), literal strings or booleans (Boolean)
+        final SparseArray<Object> attributes = new SparseArray<Object>();
+        final List<Node> children = new ArrayList<Node>();
+        // False if the preference has to be constructed from its XML attributes
+        boolean modeled;
+        Intent intent;
+
+        Node(String className, int elementIndex) {
+            this.className = className;
+            this.elementIndex = elementIndex;
+        }
+    }
+
+    /**
+     * Thrown for a resource the model does not support at all.
+     */
+    private static final class UnsupportedResourceException extends Exception {
+        UnsupportedResourceException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Walks the start tags of a resource, for constructing the preferences that are not modeled.
+     */
+    private static final class ElementCursor {
+        private final Resources mResources;
+        private final int mResId;
+        private XmlResourceParser mParser;
+        private int mIndex = -1;
+
+        ElementCursor(Resources resources, int resId) {
+            mResources = resources;
+            mResId = resId;
+        }
+
+        AttributeSet moveTo(int elementIndex) throws XmlPullParserException, IOException {
+            if (mParser == null) {
+                mParser = mResources.getXml(mResId);
+            }
+            while (mIndex < elementIndex) {
+                final int type = mParser.next();
+                if (type == XmlPullParser.END_DOCUMENT) {
+                    throw new XmlPullParserException("Element " + elementIndex + " not found");
+                }
+                if (type == XmlPullParser.START_TAG) {
+                    mIndex++;
+                }
+            }
+            return Xml.asAttributeSet(mParser);
+        }
+
+        void close() {
+            if (mParser != null) {
+                mParser.close();
+            }
+        }
+    }
+
+    private PreferenceHierarchyCache() {
+    }
+
+    /**
+     * Inflate a preference XML resource from its cached model, the same way as
+     * {@link PreferenceManager} would.
+     *
+     * @param root the screen to add the preferences to, or null for creating it from the root
+     *         element of the resource.
+     * @return the screen the preferences have been added to, or null if the resource has no model
+     *         yet (in which case it is parsed in the background) and has to be inflated as usual.
+     */
+    public static PreferenceScreen inflate(Context context, PreferenceManager manager,
+            final int resId, PreferenceScreen root) {
+        final Node model;
+        synchronized (sLock) {
+            checkConfiguration(context.getResources());
+            model = sModels.get(resId);
+            if (model == null) {
+                if (!sPendingResources.get(resId) && !sUnsupportedResources.get(resId)) {
+                    sPendingResources.put(resId, true);
+                    final Context appContext = context.getApplicationContext();
+                    BackgroundExecutor.getInstance().execute(
+                            BackgroundExecutor.PRIORITY_PREFETCH, new Runnable() {
+                        @Override
+                        public void run() {
+                            prepare(appContext, resId);
+                        }
+                    });
+                }
+                return null;
+            }
+        }
+
+        final ElementCursor cursor = new ElementCursor(context.getResources(), resId);
+        // As the inflater does, commit the default values once rather than per preference
+        setNoCommit(manager, true);
+        try {
+            if (root == null) {
+                root = manager.createPreferenceScreen(context);
+                applyAttributes(context, root, model);
+            }
+            addChildren(context, manager, root, model, cursor);
+            return root;
+        } catch (XmlPullParserException e) {
+            throw new InflateException("Cannot inflate preferences of resource " + resId, e);
+        } catch (IOException e) {
+            throw new InflateException("Cannot inflate preferences of resource " + resId, e);
+        } finally {
+            setNoCommit(manager, false);
+            cursor.close();
+        }
+    }
+
+    /**
+     * Enter or leave the no-commit mode of the manager, leaving it commits the pending changes.
+     * The mode is private to {@link PreferenceManager}: without it the changes are committed as
+     * they are made.
+     */
+    private static void setNoCommit(PreferenceManager manager, boolean noCommit) {
+        final Method setNoCommit;
+        synchronized (sLock) {
+            if (!sSetNoCommitResolved) {
+                sSetNoCommitResolved = true;
+                try {
+                    sSetNoCommit = PreferenceManager.class.getDeclaredMethod("setNoCommit",
+                            boolean.class);
+                    sSetNoCommit.setAccessible(true);
+                } catch (NoSuchMethodException e) {
+                    Log.w(LOG_TAG, "Cannot access the no-commit mode of PreferenceManager", e);
+                }
+            }
+            setNoCommit = sSetNoCommit;
+        }
+        if (setNoCommit == null) {
+            return;
+        }
+        try {
+            setNoCommit.invoke(manager, noCommit);
+        } catch (ReflectiveOperationException e) {
+            Log.w(LOG_TAG, "Cannot set the no-commit mode of PreferenceManager", e);
+        }
+    }
+
+    /**
+     * Parse the model of a preference XML resource, if not done yet. Should be called on a
+     * background thread.
+     */
+    public static void prepare(Context context, int resId) {
+        final Resources res = context.getResources();
+        final int generation;
+        synchronized (sLock) {
+            checkConfiguration(res);
+            if (sModels.get(resId) != null || sUnsupportedResources.get(resId)) {
+                return;
+            }
+            generation = sGeneration;
+        }
+
+        Node model = null;
+        try {
+            model = parse(res, resId);
+        } catch (UnsupportedResourceException e) {
+            Log.d(LOG_TAG, "Resource " + resId + " cannot be cached: " + e.getMessage());
+        } catch (XmlPullParserException e) {
+            Log.w(LOG_TAG, "Cannot parse preferences of resource " + resId, e);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot parse preferences of resource " + resId, e);
+        }
+
+        synchronized (sLock) {
+            sPendingResources.delete(resId);
+            if (generation != sGeneration) {
+                return;
+            }
+            if (model != null) {
+                sModels.put(resId, model);
+            } else {
+                sUnsupportedResources.put(resId, true);
+            }
+        }
+        CacheRegistry.getInstance(context).register("PreferenceHierarchyCache", sModelsTrimmer);
+    }
+
+    /**
+     * Drop all the models if the configuration has changed. Must be called with sLock held.
+     */
+    private static void checkConfiguration(Resources res) {
+        final Configuration config = res.getConfiguration();
+        if (sConfiguration == null || sConfiguration.diff(config) != 0) {
+            sConfiguration = new Configuration(config);
+            sModels.clear();
+            sPendingResources.clear();
+            sUnsupportedResources.clear();
+            sGeneration++;
+        }
+    }
+
+    private static void addChildren(Context context, PreferenceManager manager,
+            PreferenceGroup group, Node node, ElementCursor cursor)
+            throws XmlPullParserException, IOException {
+        final int count = node.children.size();
+        for (int n = 0; n < count; n++) {
+            final Node child = node.children.get(n);
+            final Preference preference = createPreference(context, manager, child, cursor);
+            // Added before its own children, as the inflater does
+            group.addPreference(preference);
+            if (!child.children.isEmpty()) {
+                if (!(preference instanceof PreferenceGroup)) {
+                    throw new InflateException("Only preference groups can have children: "
+                            + child.className);
+                }
+                addChildren(context, manager, (PreferenceGroup) preference, child, cursor);
+            }
+        }
+    }
+
+    private static Preference createPreference(Context context, PreferenceManager manager,
+            Node node, ElementCursor cursor) throws XmlPullParserException, IOException {
+        final Preference preference;
+        if (!node.modeled) {
+            preference = constructPreference(context, node, cursor.moveTo(node.elementIndex));
+        } else {
+            preference = createModeledPreference(context, manager, node.className);
+            applyAttributes(context, preference, node);
+        }
+        if (node.intent != null) {
+            preference.setIntent(new Intent(node.intent));
+        }
+        return preference;
+    }
+
+    private static Preference createModeledPreference(Context context, PreferenceManager manager,
+            String className) {
+        switch (className) {
+            case "android.preference.PreferenceScreen":
+                return manager.createPreferenceScreen(context);
+            case "android.preference.PreferenceCategory":
+                return new PreferenceCategory(context);
+            case "android.preference.CheckBoxPreference":
+                return new CheckBoxPreference(context);
+            case "android.preference.SwitchPreference":
+                return new SwitchPreference(context);
+            case "android.preference.ListPreference":
+                return new ListPreference(context);
+            default:
+                return new Preference(context);
+        }
+    }
+
+    private static Preference constructPreference(Context context, Node node,
+            AttributeSet attrs) {
+        try {
+            Constructor<? extends Preference> constructor;
+            synchronized (sConstructors) {
+                constructor = sConstructors.get(node.className);
+                if (constructor == null) {
+                    constructor = context.getClassLoader().loadClass(node.className)
+                            .asSubclass(Preference.class)
+                            .getConstructor(Context.class, AttributeSet.class);
+                    sConstructors.put(node.className, constructor);
+                }
+            }
+            return constructor.newInstance(context, attrs);
+        } catch (Exception e) {
+            throw new InflateException("Cannot create preference " + node.className, e);
+        }
+    }
+
+    private static void applyAttributes(Context context, Preference preference, Node node) {
+        final int count = node.attributes.size();
+        for (int n = 0; n < count; n++) {
+            final int attr = node.attributes.keyAt(n);
+            final Object value = node.attributes.valueAt(n);
+            switch (attr) {
+                case android.R.attr.key:
+                    preference.setKey(getString(context, value));
+                    break;
+                case android.R.attr.title:
+                    preference.setTitle(getText(context, value));
+                    break;
+                case android.R.attr.summary:
+                    preference.setSummary(getText(context, value));
+                    break;
+                case android.R.attr.fragment:
+                    preference.setFragment(getString(context, value));
+                    break;
+                case android.R.attr.dependency:
+                    preference.setDependency(getString(context, value));
+                    break;
+                case android.R.attr.persistent:
+                    preference.setPersistent((Boolean) value);
+                    break;
+                case android.R.attr.enabled:
+                    preference.setEnabled((Boolean) value);
+                    break;
+                case android.R.attr.selectable:
+                    preference.setSelectable((Boolean) value);
+                    break;
+                case android.R.attr.icon:
+                    preference.setIcon((Integer) value);
+                    break;
+                case android.R.attr.order:
+                    preference.setOrder((Integer) value);
+                    break;
+                case android.R.attr.summaryOn:
+                    ((TwoStatePreference) preference).setSummaryOn(getText(context, value));
+                    break;
+                case android.R.attr.summaryOff:
+                    ((TwoStatePreference) preference).setSummaryOff(getText(context, value));
+                    break;
+                case android.R.attr.disableDependentsState:
+                    ((TwoStatePreference) preference).setDisableDependentsState(
+                            (Boolean) value);
+                    break;
+                case android.R.attr.dialogTitle:
+                    ((DialogPreference) preference).setDialogTitle(getText(context, value));
+                    break;
+                case android.R.attr.dialogMessage:
+                    ((DialogPreference) preference).setDialogMessage(getText(context, value));
+                    break;
+                case android.R.attr.positiveButtonText:
+                    ((DialogPreference) preference).setPositiveButtonText(
+                            getText(context, value));
+                    break;
+                case android.R.attr.negativeButtonText:
+                    ((DialogPreference) preference).setNegativeButtonText(
+                            getText(context, value));
+                    break;
+                case android.R.attr.entries:
+                    ((ListPreference) preference).setEntries((Integer) value);
+                    break;
+                case android.R.attr.entryValues:
+                    ((ListPreference) preference).setEntryValues((Integer) value);
+                    break;
+                case android.R.attr.defaultValue:
+                    // Boolean for two-state preferences, string for lists
+                    preference.setDefaultValue(value instanceof Boolean ?
+                            value : getString(context, value));
+                    break;
+            }
+        }
+    }
+
+    private static CharSequence getText(Context context, Object value) {
+        return value instanceof Integer ? context.getText((Integer) value) : (String) value;
+    }
+
+    private static String getString(Context context, Object value) {
+        return value instanceof Integer ? context.getString((Integer) value) : (String) value;
+    }
+
+    private static Node parse(Resources res, int resId)
+            throws XmlPullParserException, IOException, UnsupportedResourceException {
+        final XmlResourceParser parser = res.getXml(resId);
+        try {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.START_TAG
+                    && type != XmlPullParser.END_DOCUMENT) {
+                // Empty
+            }
+            if (type != XmlPullParser.START_TAG) {
+                throw new XmlPullParserException("No start tag found");
+            }
+
+            final int[] elementCount = new int[] { 1 };
+            final Node root = parseElement(parser, 0, elementCount);
+            if (!root.modeled || !PreferenceScreen.class.getName().equals(root.className)) {
+                throw new UnsupportedResourceException("root is " + root.className);
+            }
+            return root;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static Node parseElement(XmlResourceParser parser, int elementIndex,
+            int[] elementCount)
+            throws XmlPullParserException, IOException, UnsupportedResourceException {
+        final String name = parser.getName();
+        final Node node = new Node(name.indexOf('.') < 0 ? DEFAULT_PACKAGE + name : name,
+                elementIndex);
+        parseAttributes(parser, node);
+
+        final int depth = parser.getDepth();
+        int type;
+        while (((type = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() > depth)
+                && type != XmlPullParser.END_DOCUMENT) {
+            if (type != XmlPullParser.START_TAG) {
+                continue;
+            }
+            final int childIndex = elementCount[0]++;
+            if (TAG_INTENT.equals(parser.getName())) {
+                node.intent = parseIntent(parser);
+            } else if (TAG_EXTRA.equals(parser.getName())) {
+                // Extras of the preference itself, read by the inflater only
+                throw new UnsupportedResourceException("preference extra");
+            } else {
+                node.children.add(parseElement(parser, childIndex, elementCount));
+            }
+        }
+        return node;
+    }
+
+    private static void parseAttributes(XmlResourceParser parser, Node node) {
+        final Set<Integer> supportedAttributes = getSupportedAttributes(node.className);
+        node.modeled = supportedAttributes != null;
+        if (!node.modeled) {
+            return;
+        }
+
+        final int count = parser.getAttributeCount();
+        for (int i = 0; i < count; i++) {
+            final String namespace = parser.getAttributeNamespace(i);
+            // The attributes of the application are not read by the framework preferences
+            if (!TextUtils.isEmpty(namespace) && !ANDROID_NAMESPACE.equals(namespace)) {
+                continue;
+            }
+            // Attributes without namespace, such as style, are not modeled either
+            final int attr = ANDROID_NAMESPACE.equals(namespace) ?
+                    parser.getAttributeNameResource(i) : 0;
+            final Object value = supportedAttributes.contains(attr) ?
+                    parseAttributeValue(parser, i, attr, node.className) : null;
+            if (value == null) {
+                // Let the preference read its attributes itself
+                node.modeled = false;
+                node.attributes.clear();
+                return;
+            }
+            node.attributes.put(attr, value);
+        }
+    }
+
+    /**
+     * Return the value of an attribute for the model, or null if it cannot be modeled.
+     */
+    private static Object parseAttributeValue(XmlResourceParser parser, int index, int attr,
+            String className) {
+        final int resId = parser.getAttributeResourceValue(index, 0);
+        final String literal = parser.getAttributeValue(index);
+        final boolean isLiteral = resId == 0 && literal != null && !literal.startsWith("?")
+                && !literal.startsWith("@");
+
+        switch (attr) {
+            case android.R.attr.persistent:
+            case android.R.attr.enabled:
+            case android.R.attr.selectable:
+            case android.R.attr.disableDependentsState:
+                return isLiteral ? parser.getAttributeBooleanValue(index, false) : null;
+            case android.R.attr.order:
+                return isLiteral ? parser.getAttributeIntValue(index, 0) : null;
+            case android.R.attr.icon:
+            case android.R.attr.entries:
+            case android.R.attr.entryValues:
+                return resId != 0 ? resId : null;
+            case android.R.attr.defaultValue:
+                if (!ListPreference.class.getName().equals(className)) {
+                    // Two-state preferences: only literal booleans
+                    return isLiteral && ("true".equals(literal) || "false".equals(literal)) ?
+                            Boolean.valueOf(literal) : null;
+                }
+                // Fall through
+            default:
+                // Text: a string resource or a literal
+                if (resId != 0) {
+                    return resId;
+                }
+                return isLiteral ? literal : null;
+        }
+    }
+
+    private static Set<Integer> getSupportedAttributes(String className) {
+        switch (className) {
+            case "android.preference.Preference":
+            case "android.preference.PreferenceCategory":
+            case "android.preference.PreferenceScreen":
+                return PREFERENCE_ATTRIBUTES;
+            case "android.preference.CheckBoxPreference":
+            case "android.preference.SwitchPreference":
+                return TWO_STATE_PREFERENCE_ATTRIBUTES;
+            case "android.preference.ListPreference":
+                return LIST_PREFERENCE_ATTRIBUTES;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Only explicit intents and intents with a literal action are modeled.
+     */
+    private static Intent parseIntent(XmlResourceParser parser)
+            throws XmlPullParserException, IOException, UnsupportedResourceException {
+        String action = null;
+        String targetPackage = null;
+        String targetClass = null;
+
+        final int count = parser.getAttributeCount();
+        for (int i = 0; i < count; i++) {
+            final String value = parser.getAttributeValue(i);
+            if (!ANDROID_NAMESPACE.equals(parser.getAttributeNamespace(i))
+                    || parser.getAttributeResourceValue(i, 0) != 0 || value == null
+                    || value.startsWith("?")) {
+                throw new UnsupportedResourceException("intent attribute "
+                        + parser.getAttributeName(i));
+            }
+            switch (parser.getAttributeNameResource(i)) {
+                case android.R.attr.action:
+                    action = value;
+                    break;
+                case android.R.attr.targetPackage:
+                    targetPackage = value;
+                    break;
+                case android.R.attr.targetClass:
+                    targetClass = value;
+                    break;
+                default:
+                    throw new UnsupportedResourceException("intent attribute "
+                            + parser.getAttributeName(i));
+            }
+        }
+
+        final int depth = parser.getDepth();
+        int type;
+        while (((type = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() > depth)
+                && type != XmlPullParser.END_DOCUMENT) {
+            if (type == XmlPullParser.START_TAG) {
+                throw new UnsupportedResourceException("intent child " + parser.getName());
+            }
+        }
+
+        final Intent intent = new Intent(action);
+        if (targetPackage != null && targetClass != null) {
+            intent.setComponent(new ComponentName(targetPackage, targetClass));
+        }
+        return intent;
+    }
+}
@@ -34,13 +34,10 @@ import android.content.pm.ResolveInfo;
 import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
-import android.nfc.NfcAdapter;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.INetworkManagementService;
 import android.os.Message;
-import android.os.RemoteException;
-import android.os.ServiceManager;
+import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.preference.Preference;
@@ -75,11 +72,13 @@ import com.android.settings.applications.InstalledAppDetails;
 import com.android.settings.applications.ManageApplications;
 import com.android.settings.applications.ProcessStatsUi;
 import com.android.settings.bluetooth.BluetoothSettings;
+import com.android.settings.dashboard.DashboardCategoriesCache;
 import com.android.settings.dashboard.DashboardCategory;
 import com.android.settings.dashboard.DashboardSummary;
 import com.android.settings.dashboard.DashboardTile;
 import com.android.settings.dashboard.NoHomeDialogFragment;
 import com.android.settings.dashboard.SearchResultsSummary;
+import com.android.settings.dashboard.TileAvailability;
 import com.android.settings.deviceinfo.Memory;
 import com.android.settings.deviceinfo.UsbSettings;
 import com.android.settings.fuelgauge.BatterySaverSettings;
@@ -125,7 +124,9 @@ import com.dirtyunicorns.dutweaks.fragments.NavbarSettings;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -443,6 +444,17 @@ public class SettingsActivity extends Activity
         Index.getInstance(this).update();
     }
 
+    /**
+     * Dump the sizes of the caches and the main thread I/O along with the activity state, with:
+     * adb shell dumpsys activity top
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        CacheRegistry.getInstance(this).dump(writer, prefix);
+        MainThreadIoTracker.getInstance().dump(writer, prefix);
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
@@ -505,8 +517,17 @@ public class SettingsActivity extends Activity
 
     @Override
     protected void onCreate(Bundle savedState) {
-        super.onCreate(savedState);
+        Trace.beginSection("SettingsActivity.onCreate");
+        try {
+            MainThreadIoTracker.getInstance().setScreen(getClass().getName());
+            super.onCreate(savedState);
+            initActivity(savedState);
+        } finally {
+            Trace.endSection();
+        }
+    }
 
+    private void initActivity(Bundle savedState) {
         // Should happen before any call to getIntent()
         getMetaData();
 
@@ -772,6 +793,8 @@ public class SettingsActivity extends Activity
     @Override
     public void onResume() {
         super.onResume();
+        MainThreadIoTracker.getInstance().setScreen(getClass().getName());
+        MainThreadIoTracker.getInstance().onActivityResumed();
 
         final int newHomeActivityCount = getHomeActivitiesCount();
         if (newHomeActivityCount != mHomeActivitiesCount) {
@@ -800,6 +823,7 @@ public class SettingsActivity extends Activity
     @Override
     public void onPause() {
         super.onPause();
+        MainThreadIoTracker.getInstance().onActivityPaused();
 
         unregisterReceiver(mBatteryInfoReceiver);
         mDynamicIndexableContentMonitor.unregister();
@@ -994,10 +1018,29 @@ public class SettingsActivity extends Activity
      */
     private void buildDashboardCategories(List<DashboardCategory> categories) {
         categories.clear();
-        loadCategoriesFromResource(R.xml.dashboard_categories, categories);
-        updateTilesList(categories);
+        Trace.beginSection("DashboardCategories.load");
+        try {
+            DashboardCategoriesCache.getCategories(this, R.xml.dashboard_categories,
+                    mCategoriesLoader, categories);
+        } finally {
+            Trace.endSection();
+        }
+        Trace.beginSection("DashboardCategories.filterTiles");
+        try {
+            updateTilesList(categories);
+        } finally {
+            Trace.endSection();
+        }
     }
 
+    private final DashboardCategoriesCache.Loader mCategoriesLoader =
+            new DashboardCategoriesCache.Loader() {
+        @Override
+        public void loadCategories(int resid, List<DashboardCategory> target) {
+            loadCategoriesFromResource(resid, target);
+        }
+    };
+
     /**
      * Parse the given XML file as a categories description, adding each
      * parsed categories and tiles into the target list.
@@ -1123,10 +1166,7 @@ public class SettingsActivity extends Activity
                                 curBundle = null;
                             }
 
-                            // Show the SIM Cards setting if there are more than 2 SIMs installed.
-                            if(tile.id != R.id.sim_settings || Utils.showSimCardTile(this)){
-                                category.addTile(tile);
-                            }
+                            category.addTile(tile);
 
                         } else {
                             XmlUtils.skipCurrentTag(parser);
@@ -1153,7 +1193,8 @@ public class SettingsActivity extends Activity
                 DevelopmentSettings.PREF_SHOW,
                 android.os.Build.TYPE.equals("eng") || android.os.Build.TYPE.equals("userdebug"));
 
-        final UserManager um = (UserManager) getSystemService(Context.USER_SERVICE);
+        // The tiles depending on the device are filtered from the last known availability
+        final TileAvailability availability = TileAvailability.getInstance(this);
 
         final int size = target.size();
         for (int i = 0; i < size; i++) {
@@ -1168,31 +1209,12 @@ public class SettingsActivity extends Activity
                 DashboardTile tile = category.getTile(n);
                 boolean removeTile = false;
                 id = (int) tile.id;
-                if (id == R.id.operator_settings || id == R.id.manufacturer_settings) {
+                if (!availability.isAvailable(id)) {
+                    removeTile = true;
+                } else if (id == R.id.operator_settings || id == R.id.manufacturer_settings) {
                     if (!Utils.updateTileToSpecificActivityFromMetaDataOrRemove(this, tile)) {
                         removeTile = true;
                     }
-                } else if (id == R.id.wifi_settings) {
-                    // Remove WiFi Settings if WiFi service is not available.
-                    if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_WIFI)) {
-                        removeTile = true;
-                    }
-                } else if (id == R.id.bluetooth_settings) {
-                    // Remove Bluetooth Settings if Bluetooth service is not available.
-                    if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
-                        removeTile = true;
-                    }
-                } else if (id == R.id.data_usage_settings) {
-                    // Remove data usage when kernel module not enabled
-                    final INetworkManagementService netManager = INetworkManagementService.Stub
-                            .asInterface(ServiceManager.getService(Context.NETWORKMANAGEMENT_SERVICE));
-                    try {
-                        if (!netManager.isBandwidthControlEnabled()) {
-                            removeTile = true;
-                        }
-                    } catch (RemoteException e) {
-                        // ignored
-                    }
                 } else if (id == R.id.battery_settings) {
                     // Remove battery settings when battery is not available. (e.g. TV)
 
@@ -1203,46 +1225,8 @@ public class SettingsActivity extends Activity
                     if (!updateHomeSettingTiles(tile)) {
                         removeTile = true;
                     }
-                } else if (id == R.id.user_settings) {
-                    boolean hasMultipleUsers =
-                            ((UserManager) getSystemService(Context.USER_SERVICE))
-                                    .getUserCount() > 1;
-                    if (!UserHandle.MU_ENABLED
-                            || !UserManager.supportsMultipleUsers()
-                            || Utils.isMonkeyRunning()) {
-                        removeTile = true;
-                    }
-                } else if (id == R.id.nfc_payment_settings) {
-                    if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_NFC)) {
-                        removeTile = true;
-                    } else {
-                        // Only show if NFC is on and we have the HCE feature
-                        NfcAdapter adapter = NfcAdapter.getDefaultAdapter(this);
-                        if (adapter == null || !adapter.isEnabled() ||
-                                !getPackageManager().hasSystemFeature(
-                                        PackageManager.FEATURE_NFC_HOST_CARD_EMULATION)) {
-                            removeTile = true;
-                        }
-                    }
-                } else if (id == R.id.print_settings) {
-                    boolean hasPrintingSupport = getPackageManager().hasSystemFeature(
-                            PackageManager.FEATURE_PRINTING);
-                    if (!hasPrintingSupport) {
-                        removeTile = true;
-                    }
                 } else if (id == R.id.development_settings) {
-                    if (!showDev || um.hasUserRestriction(
-                            UserManager.DISALLOW_DEBUGGING_FEATURES)) {
-                        removeTile = true;
-                    }
-                } else if (id == R.id.supersu_settings) {
-                    // Embedding into Settings is supported from SuperSU v1.85 and up
-                    boolean supported = false;
-                    try {
-                        supported = (getPackageManager().getPackageInfo("eu.chainfire.supersu", 0).versionCode >= 185);
-                    } catch (PackageManager.NameNotFoundException e) {
-                    }
-                    if (!supported) {
+                    if (!showDev) {
                         removeTile = true;
                     }
                 }
@@ -1258,6 +1242,9 @@ public class SettingsActivity extends Activity
                 n--;
             }
         }
+
+        // Catch up with any change, the listeners will rebuild the tiles
+        availability.refreshIfNeeded();
     }
 
     private boolean updateHomeSettingTiles(DashboardTile tile) {
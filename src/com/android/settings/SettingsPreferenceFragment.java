@@ -31,6 +31,7 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceGroupAdapter;
+import android.preference.PreferenceScreen;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -86,9 +87,13 @@ public class SettingsPreferenceFragment extends PreferenceFragment implements Di
 
     private ViewGroup mPinnedHeaderFrameLayout;
 
+    // Background work of this screen, cancelled when it is destroyed
+    private BackgroundExecutor.Scope mBackgroundScope;
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
+        MainThreadIoTracker.getInstance().setScreen(getClass().getName());
 
         mContext = getActivity().getApplicationContext();
 
@@ -105,6 +110,20 @@ public class SettingsPreferenceFragment extends PreferenceFragment implements Di
         }
     }
 
+    /**
+     * Inflate the preferences from their cached model when there is one.
+     */
+    @Override
+    public void addPreferencesFromResource(int preferencesResId) {
+        final PreferenceScreen screen = PreferenceHierarchyCache.inflate(getActivity(),
+                getPreferenceManager(), preferencesResId, getPreferenceScreen());
+        if (screen == null) {
+            super.addPreferencesFromResource(preferencesResId);
+            return;
+        }
+        setPreferenceScreen(screen);
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
@@ -141,6 +160,7 @@ public class SettingsPreferenceFragment extends PreferenceFragment implements Di
     @Override
     public void onResume() {
         super.onResume();
+        MainThreadIoTracker.getInstance().setScreen(getClass().getName());
 
         final Bundle args = getArguments();
         if (args != null) {
@@ -327,6 +347,26 @@ public class SettingsPreferenceFragment extends PreferenceFragment implements Di
         return getActivity().getPackageManager();
     }
 
+    /**
+     * Returns the scope for the background work of this fragment, cancelled when it is
+     * destroyed.
+     */
+    protected BackgroundExecutor.Scope getBackgroundScope() {
+        if (mBackgroundScope == null) {
+            mBackgroundScope = BackgroundExecutor.getInstance().newScope();
+        }
+        return mBackgroundScope;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mBackgroundScope != null) {
+            mBackgroundScope.cancel();
+            mBackgroundScope = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onDetach() {
         if (isRemoving()) {
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.util.LruCache;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes strings for matching: diacritical marks are removed and the result is lower-cased
+ * using the default locale, so that "Caf&eacute;" matches "cafe".
+ *
+ * The result is the same as decomposing the string (NFD), removing the combining diacritical
+ * marks and lower-casing it, but ASCII and Latin-1 / Latin Extended-A strings are folded in a
+ * single pass over a precomputed table. Other strings take the slow path, whose recent results
+ * are cached.
+ */
+public final class StringNormalizer {
+
+    private static final Pattern REMOVE_DIACRITICALS_PATTERN
+            = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+    private static final char COMBINING_MARKS_START = '\u0300';
+    private static final char COMBINING_MARKS_END = '\u036F';
+
+    // Chars below this one are folded through FOLDING_TABLE (Latin-1 and Latin Extended-A)
+    private static final char FOLDING_TABLE_END = '\u0180';
+    // 0 when a char does not fold into a single char
+    private static final char[] FOLDING_TABLE = new char[FOLDING_TABLE_END];
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final LruCache<String, String> sCache =
+            new LruCache<String, String>(CACHE_SIZE);
+    private static Locale sCacheLocale;
+
+    static {
+        for (char c = 0; c < FOLDING_TABLE_END; c++) {
+            final String folded = REMOVE_DIACRITICALS_PATTERN.matcher(
+                    Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD)).replaceAll("");
+            if (folded.length() == 1) {
+                FOLDING_TABLE[c] = Character.toLowerCase(folded.charAt(0));
+            }
+        }
+    }
+
+    private StringNormalizer() {
+    }
+
+    /**
+     * Return the normalized form of a string.
+     */
+    public static String normalize(String str) {
+        return normalize(str, (char) 0);
+    }
+
+    /**
+     * Return the normalized form of a string, leaving out all the occurrences of a char.
+     *
+     * @param ignored the char to leave out, or 0.
+     */
+    public static String normalize(String str, char ignored) {
+        final Locale locale = Locale.getDefault();
+        if (!hasSimpleCaseMapping(locale)) {
+            return normalizeSlowly(str, ignored, locale);
+        }
+
+        final int length = str.length();
+        int n = 0;
+        // Nothing to allocate as long as the string is already normalized
+        for (; n < length; n++) {
+            final char c = str.charAt(n);
+            if (c == ignored || c >= FOLDING_TABLE_END || FOLDING_TABLE[c] != c) {
+                break;
+            }
+        }
+        if (n == length) {
+            return str;
+        }
+
+        final char[] result = new char[length];
+        str.getChars(0, n, result, 0);
+        int count = n;
+        for (; n < length; n++) {
+            final char c = str.charAt(n);
+            if (c == ignored) {
+                continue;
+            }
+            if (c < FOLDING_TABLE_END) {
+                final char folded = FOLDING_TABLE[c];
+                if (folded == 0) {
+                    return normalizeSlowly(str, ignored, locale);
+                }
+                result[count++] = folded;
+            } else if (c < COMBINING_MARKS_START || c > COMBINING_MARKS_END) {
+                return normalizeSlowly(str, ignored, locale);
+            }
+        }
+        return new String(result, 0, count);
+    }
+
+    /**
+     * Turkish, Azeri and Lithuanian have their own rules for lower-casing 'I', which the folding
+     * table does not know about.
+     */
+    private static boolean hasSimpleCaseMapping(Locale locale) {
+        final String language = locale.getLanguage();
+        return !"tr".equals(language) && !"az".equals(language) && !"lt".equals(language);
+    }
+
+    private static String normalizeSlowly(String str, char ignored, Locale locale) {
+        final String input = (ignored != 0 && str.indexOf(ignored) >= 0) ?
+                str.replace(String.valueOf(ignored), "") : str;
+        synchronized (sCache) {
+            if (!locale.equals(sCacheLocale)) {
+                sCache.evictAll();
+                sCacheLocale = locale;
+            }
+        }
+        String result = sCache.get(input);
+        if (result != null) {
+            return result;
+        }
+
+        final String decomposed = Normalizer.normalize(input, Normalizer.Form.NFD);
+        result = REMOVE_DIACRITICALS_PATTERN.matcher(decomposed).replaceAll("")
+                .toLowerCase(locale);
+        sCache.put(input, result);
+        return result;
+    }
+}
@@ -16,12 +16,14 @@
 
 package com.android.settings.accounts;
 
+import com.android.settings.CacheRegistry;
 import com.google.android.collect.Maps;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.accounts.AuthenticatorDescription;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
@@ -58,6 +60,25 @@ final public class AuthenticatorHelper extends BroadcastReceiver {
     private Map<String, Drawable> mAccTypeIconCache = new HashMap<String, Drawable>();
     private HashMap<String, ArrayList<String>> mAccountTypeToAuthorities = Maps.newHashMap();
 
+    private final CacheRegistry.TrimmableCache mIconCacheTrimmer =
+            new CacheRegistry.TrimmableCache() {
+        @Override
+        public void trimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                synchronized (mAccTypeIconCache) {
+                    mAccTypeIconCache.clear();
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (mAccTypeIconCache) {
+                return mAccTypeIconCache.size();
+            }
+        }
+    };
+
     private final UserHandle mUserHandle;
     private final UserManager mUm;
     private final Context mContext;
@@ -74,6 +95,8 @@ final public class AuthenticatorHelper extends BroadcastReceiver {
         mUm = userManager;
         mUserHandle = userHandle;
         mListener = listener;
+        CacheRegistry.getInstance(context).register("AuthenticatorHelper icons",
+                mIconCacheTrimmer);
         // This guarantees that the helper is ready to use once constructed: the account types and
         // authorities are initialized
         onAccountsUpdated(null);
@@ -210,7 +233,9 @@ final public class AuthenticatorHelper extends BroadcastReceiver {
             accounts = AccountManager.get(mContext).getAccountsAsUser(mUserHandle.getIdentifier());
         }
         mEnabledAccountTypes.clear();
-        mAccTypeIconCache.clear();
+        synchronized (mAccTypeIconCache) {
+            mAccTypeIconCache.clear();
+        }
         for (int i = 0; i < accounts.length; i++) {
             final Account account = accounts[i];
             if (!mEnabledAccountTypes.contains(account.type)) {
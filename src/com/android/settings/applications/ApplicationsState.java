@@ -2,6 +2,7 @@ package com.android.settings.applications;
 
 import android.app.Application;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -22,16 +23,16 @@ import android.os.UserHandle;
 import android.text.format.Formatter;
 import android.util.Log;
 
+import com.android.settings.CacheRegistry;
+import com.android.settings.StringNormalizer;
+
 import java.io.File;
 import java.text.Collator;
-import java.text.Normalizer;
-import java.text.Normalizer.Form;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * Keeps track of information about all installed applications, lazy-loading
@@ -59,13 +60,8 @@ public class ApplicationsState {
     static final int SIZE_UNKNOWN = -1;
     static final int SIZE_INVALID = -2;
 
-    static final Pattern REMOVE_DIACRITICALS_PATTERN
-            = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
-
     public static String normalize(String str) {
-        String tmp = Normalizer.normalize(str, Form.NFD);
-        return REMOVE_DIACRITICALS_PATTERN.matcher(tmp)
-                .replaceAll("").toLowerCase();
+        return StringNormalizer.normalize(str);
     }
 
     public static class SizeInfo {
@@ -286,6 +282,40 @@ public class ApplicationsState {
     // Temporary for dispatching session callbacks.  Only touched by main thread.
     final ArrayList<Session> mActiveSessions = new ArrayList<Session>();
 
+    // Icons are loaded again on the next resume, so they go once no session is resumed
+    final CacheRegistry.TrimmableCache mIconTrimmer = new CacheRegistry.TrimmableCache() {
+        @Override
+        public void trimMemory(int level) {
+            if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                return;
+            }
+            synchronized (mEntriesMap) {
+                if (mResumed) {
+                    return;
+                }
+                for (int i=0; i<mAppEntries.size(); i++) {
+                    AppEntry entry = mAppEntries.get(i);
+                    synchronized (entry) {
+                        entry.icon = null;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            synchronized (mEntriesMap) {
+                for (int i=0; i<mAppEntries.size(); i++) {
+                    if (mAppEntries.get(i).icon != null) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    };
+
     /**
      * Releases the member variables in ApplicationsState
      */
@@ -452,6 +482,7 @@ public class ApplicationsState {
                 Process.THREAD_PRIORITY_BACKGROUND);
         mThread.start();
         mBackgroundHandler = new BackgroundHandler(mThread.getLooper());
+        CacheRegistry.getInstance(app).register("ApplicationsState icons", mIconTrimmer);
 
         // Only the owner can see all apps.
         if (UserHandle.myUserId() == 0) {
@@ -32,6 +32,7 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.android.settings.BackgroundExecutor;
 import com.android.settings.R;
 
 import java.util.Collections;
@@ -42,6 +43,7 @@ import java.util.TreeSet;
 public class PackageListAdapter extends BaseAdapter implements Runnable {
     private PackageManager mPm;
     private LayoutInflater mInflater;
+    private final BackgroundExecutor.Scope mScope;
     private List<PackageItem> mInstalledPackages = new LinkedList<PackageItem>();
 
     // Packages which don't have launcher icons, but which we want to show nevertheless
@@ -85,8 +87,17 @@ public class PackageListAdapter extends BaseAdapter implements Runnable {
     }
 
     public PackageListAdapter(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * @param scope the scope to load the packages in, so that loading stops with the screen, or
+     *         null.
+     */
+    public PackageListAdapter(Context context, BackgroundExecutor.Scope scope) {
         mPm = context.getPackageManager();
         mInflater = LayoutInflater.from(context);
+        mScope = scope;
         reloadList();
     }
 
@@ -149,7 +160,11 @@ public class PackageListAdapter extends BaseAdapter implements Runnable {
 
     private void reloadList() {
         mInstalledPackages.clear();
-        new Thread(this).start();
+        if (mScope != null) {
+            mScope.execute(BackgroundExecutor.PRIORITY_VISIBLE, this);
+        } else {
+            BackgroundExecutor.getInstance().execute(BackgroundExecutor.PRIORITY_VISIBLE, this);
+        }
     }
 
     @Override
@@ -159,6 +174,10 @@ public class PackageListAdapter extends BaseAdapter implements Runnable {
         List<ResolveInfo> installedAppsInfo = mPm.queryIntentActivities(mainIntent, 0);
 
         for (ResolveInfo info : installedAppsInfo) {
+            if (Thread.currentThread().isInterrupted()) {
+                // The screen is gone
+                return;
+            }
             ApplicationInfo appInfo = info.activityInfo.applicationInfo;
             final PackageItem item = new PackageItem(appInfo.packageName,
                     appInfo.loadLabel(mPm), appInfo.loadIcon(mPm));
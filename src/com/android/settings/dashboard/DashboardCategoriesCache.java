@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.Spanned;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.settings.BackgroundExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide cache of the dashboard categories parsed from XML, before any filtering.
+ *
+ * The parsed tree is kept serialized, so that every caller gets its own copy to filter, and
+ * persisted as a snapshot in the cache directory. The snapshot is only valid for the build, the
+ * APK and the configuration it has been parsed with.
+ *
+ * The fields of the categories and tiles are written one by one, intents as URIs: a tree holding
+ * anything else than what the XML can declare (styled text, extras other than strings, booleans,
+ * integers and floats) is not cached.
+ */
+public final class DashboardCategoriesCache {
+
+    private static final String LOG_TAG = "DashboardCategoriesCache";
+
+    private static final String SNAPSHOT_FILE_NAME = "dashboard_categories.bin";
+    private static final int SNAPSHOT_VERSION = 2;
+    // The categories take a few KB: anything bigger is a corrupted snapshot
+    private static final int MAX_SNAPSHOT_DATA_SIZE = 1024 * 1024;
+
+    // Types of the bundle values
+    private static final int VALUE_STRING = 0;
+    private static final int VALUE_BOOLEAN = 1;
+    private static final int VALUE_INTEGER = 2;
+    private static final int VALUE_FLOAT = 3;
+
+    /**
+     * Parse the categories when there is no valid snapshot.
+     */
+    public interface Loader {
+        public void loadCategories(int resid, List<DashboardCategory> target);
+    }
+
+    private static final Object sLock = new Object();
+    private static String sKey;
+    private static byte[] sData;
+
+    private DashboardCategoriesCache() {
+    }
+
+    /**
+     * Add the categories of the given XML resource to the target list, using the cached parsed
+     * tree if it is still valid for the current configuration.
+     */
+    public static void getCategories(Context context, int resid, Loader loader,
+            List<DashboardCategory> target) {
+        final String key = getKey(context, resid);
+        final Context appContext = context.getApplicationContext();
+
+        synchronized (sLock) {
+            if (!key.equals(sKey)) {
+                sKey = null;
+                sData = readSnapshot(appContext, key);
+                if (sData != null) {
+                    sKey = key;
+                }
+            }
+            if (sData != null && unmarshall(sData, target)) {
+                return;
+            }
+        }
+
+        final List<DashboardCategory> categories = new ArrayList<DashboardCategory>();
+        loader.loadCategories(resid, categories);
+
+        final byte[] data = marshall(categories);
+        synchronized (sLock) {
+            sKey = (data != null) ? key : null;
+            sData = data;
+        }
+        if (data == null) {
+            target.addAll(categories);
+            return;
+        }
+        BackgroundExecutor.getInstance().execute(BackgroundExecutor.PRIORITY_MAINTENANCE,
+                new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshot(appContext, key, data);
+            }
+        });
+
+        target.addAll(categories);
+    }
+
+    private static String getKey(Context context, int resid) {
+        final Configuration config = context.getResources().getConfiguration();
+        final File apk = new File(context.getApplicationInfo().sourceDir);
+        return Build.FINGERPRINT + '|' + apk.lastModified() + '|' + resid + '|' +
+                config.locale + '|' + config.mcc + '|' + config.mnc + '|' +
+                config.densityDpi + '|' + config.smallestScreenWidthDp + '|' +
+                config.uiMode;
+    }
+
+    /**
+     * Return the serialized categories, or null if they cannot be serialized.
+     */
+    private static byte[] marshall(List<DashboardCategory> categories) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            final int count = categories.size();
+            out.writeInt(count);
+            for (int n = 0; n < count; n++) {
+                writeCategory(out, categories.get(n));
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot cache dashboard categories", e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private static boolean unmarshall(byte[] data, List<DashboardCategory> target) {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            final List<DashboardCategory> categories = new ArrayList<DashboardCategory>();
+            final int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                categories.add(readCategory(in));
+            }
+            target.addAll(categories);
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read cached dashboard categories", e);
+            return false;
+        }
+    }
+
+    private static void writeCategory(DataOutputStream out, DashboardCategory category)
+            throws IOException {
+        out.writeLong(category.id);
+        out.writeInt(category.titleRes);
+        writeText(out, category.title);
+
+        final int count = category.getTilesCount();
+        out.writeInt(count);
+        for (int n = 0; n < count; n++) {
+            writeTile(out, category.getTile(n));
+        }
+    }
+
+    private static DashboardCategory readCategory(DataInputStream in) throws IOException {
+        final DashboardCategory category = new DashboardCategory();
+        category.id = in.readLong();
+        category.titleRes = in.readInt();
+        category.title = readString(in);
+
+        final int count = in.readInt();
+        for (int n = 0; n < count; n++) {
+            category.addTile(readTile(in));
+        }
+        return category;
+    }
+
+    private static void writeTile(DataOutputStream out, DashboardTile tile) throws IOException {
+        out.writeLong(tile.id);
+        out.writeInt(tile.titleRes);
+        writeText(out, tile.title);
+        out.writeInt(tile.summaryRes);
+        writeText(out, tile.summary);
+        out.writeInt(tile.iconRes);
+        writeString(out, tile.fragment);
+        writeBundle(out, tile.fragmentArguments);
+        writeString(out,
+                (tile.intent != null) ? tile.intent.toUri(Intent.URI_INTENT_SCHEME) : null);
+        writeBundle(out, tile.extras);
+    }
+
+    private static DashboardTile readTile(DataInputStream in) throws IOException {
+        final DashboardTile tile = new DashboardTile();
+        tile.id = in.readLong();
+        tile.titleRes = in.readInt();
+        tile.title = readString(in);
+        tile.summaryRes = in.readInt();
+        tile.summary = readString(in);
+        tile.iconRes = in.readInt();
+        tile.fragment = readString(in);
+        tile.fragmentArguments = readBundle(in);
+        final String intentUri = readString(in);
+        if (intentUri != null) {
+            try {
+                tile.intent = Intent.parseUri(intentUri, Intent.URI_INTENT_SCHEME);
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid tile intent: " + intentUri, e);
+            }
+        }
+        tile.extras = readBundle(in);
+        return tile;
+    }
+
+    private static void writeText(DataOutputStream out, CharSequence text) throws IOException {
+        if (text instanceof Spanned) {
+            throw new IOException("Styled text: " + text);
+        }
+        writeString(out, (text != null) ? text.toString() : null);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBundle(DataOutputStream out, Bundle bundle) throws IOException {
+        if (bundle == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bundle.size());
+        for (String key : bundle.keySet()) {
+            final Object value = bundle.get(key);
+            out.writeUTF(key);
+            if (value instanceof String) {
+                out.writeByte(VALUE_STRING);
+                out.writeUTF((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(VALUE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(VALUE_INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Float) {
+                out.writeByte(VALUE_FLOAT);
+                out.writeFloat((Float) value);
+            } else {
+                throw new IOException("Unsupported value for: " + key);
+            }
+        }
+    }
+
+    private static Bundle readBundle(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        final Bundle bundle = new Bundle();
+        for (int n = 0; n < count; n++) {
+            final String key = in.readUTF();
+            final int type = in.readByte();
+            switch (type) {
+                case VALUE_STRING:
+                    bundle.putString(key, in.readUTF());
+                    break;
+                case VALUE_BOOLEAN:
+                    bundle.putBoolean(key, in.readBoolean());
+                    break;
+                case VALUE_INTEGER:
+                    bundle.putInt(key, in.readInt());
+                    break;
+                case VALUE_FLOAT:
+                    bundle.putFloat(key, in.readFloat());
+                    break;
+                default:
+                    throw new IOException("Unknown value type: " + type);
+            }
+        }
+        return bundle;
+    }
+
+    private static AtomicFile getSnapshotFile(Context context) {
+        return new AtomicFile(new File(context.getCacheDir(), SNAPSHOT_FILE_NAME));
+    }
+
+    private static byte[] readSnapshot(Context context, String key) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(getSnapshotFile(context).openRead());
+            if (in.readInt() != SNAPSHOT_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            final int size = in.readInt();
+            if (size < 0 || size > MAX_SNAPSHOT_DATA_SIZE) {
+                return null;
+            }
+            final byte[] data = new byte[size];
+            in.readFully(data);
+            return data;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot read dashboard categories snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static void writeSnapshot(Context context, String key, byte[] data) {
+        final AtomicFile file = getSnapshotFile(context);
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            final DataOutputStream dataOut = new DataOutputStream(out);
+            dataOut.writeInt(SNAPSHOT_VERSION);
+            dataOut.writeUTF(key);
+            dataOut.writeInt(data.length);
+            dataOut.write(data);
+            dataOut.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot write dashboard categories snapshot", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+}
@@ -24,7 +24,10 @@ import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue;
+import android.os.Trace;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -35,6 +38,7 @@ import android.widget.TextView;
 import com.android.settings.R;
 import com.android.settings.SettingsActivity;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class DashboardSummary extends Fragment {
@@ -43,6 +47,10 @@ public class DashboardSummary extends Fragment {
     private LayoutInflater mLayoutInflater;
     private ViewGroup mDashboard;
 
+    // Tile views removed from the dashboard, kept for being reused
+    private final ArrayList<DashboardTileView> mRecycledTileViews =
+            new ArrayList<DashboardTileView>();
+
     private static final int MSG_REBUILD_UI = 1;
     private Handler mHandler = new Handler() {
         @Override
@@ -64,6 +72,33 @@ public class DashboardSummary extends Fragment {
     }
     private HomePackageReceiver mHomePackageReceiver = new HomePackageReceiver();
 
+    private final TileAvailability.Listener mTileAvailabilityListener =
+            new TileAvailability.Listener() {
+        @Override
+        public void onTileAvailabilityChanged() {
+            sendRebuildUI();
+        }
+    };
+
+    private final TileSummaryLoader.Listener mTileSummaryListener =
+            new TileSummaryLoader.Listener() {
+        @Override
+        public void onTileSummariesChanged() {
+            updateTileSummaries();
+        }
+    };
+
+    // Warms up the screens the most likely to be opened next, once the dashboard is idle
+    private final MessageQueue.IdleHandler mWarmUpIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (isAdded()) {
+                NavigationHistory.getInstance(getActivity()).warmUp();
+            }
+            return false;
+        }
+    };
+
     @Override
     public void onResume() {
         super.onResume();
@@ -76,6 +111,11 @@ public class DashboardSummary extends Fragment {
         filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
         filter.addDataScheme("package");
         getActivity().registerReceiver(mHomePackageReceiver, filter);
+
+        TileAvailability.getInstance(getActivity()).addListener(mTileAvailabilityListener);
+        TileSummaryLoader.getInstance(getActivity()).addListener(mTileSummaryListener);
+
+        Looper.myQueue().addIdleHandler(mWarmUpIdleHandler);
     }
 
     @Override
@@ -83,6 +123,11 @@ public class DashboardSummary extends Fragment {
         super.onPause();
 
         getActivity().unregisterReceiver(mHomePackageReceiver);
+
+        TileAvailability.getInstance(getActivity()).removeListener(mTileAvailabilityListener);
+        TileSummaryLoader.getInstance(getActivity()).removeListener(mTileSummaryListener);
+
+        Looper.myQueue().removeIdleHandler(mWarmUpIdleHandler);
     }
 
     @Override
@@ -97,56 +142,187 @@ public class DashboardSummary extends Fragment {
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        mRecycledTileViews.clear();
+    }
+
     private void rebuildUI(Context context) {
         if (!isAdded()) {
             Log.w(LOG_TAG, "Cannot build the DashboardSummary UI yet as the Fragment is not added");
             return;
         }
 
-        long start = System.currentTimeMillis();
-        final Resources res = getResources();
+        Trace.beginSection("DashboardSummary.rebuildUI");
+        try {
+            long start = System.currentTimeMillis();
+            final Resources res = getResources();
+            final TileSummaryLoader summaryLoader = TileSummaryLoader.getInstance(context);
 
-        mDashboard.removeAllViews();
+            List<DashboardCategory> categories =
+                    ((SettingsActivity) context).getDashboardCategories(true);
 
-        List<DashboardCategory> categories =
-                ((SettingsActivity) context).getDashboardCategories(true);
+            final int count = categories.size();
 
-        final int count = categories.size();
+            // Only what changed since the last time is updated: views are reused in place, and
+            // the tile views removed are recycled for the categories needing more tiles
+            while (mDashboard.getChildCount() > count) {
+                final int last = mDashboard.getChildCount() - 1;
+                recycleTileViews(getCategoryContent(mDashboard.getChildAt(last)), 0);
+                mDashboard.removeViewAt(last);
+            }
 
-        for (int n = 0; n < count; n++) {
-            DashboardCategory category = categories.get(n);
+            for (int n = 0; n < count; n++) {
+                DashboardCategory category = categories.get(n);
+
+                View categoryView;
+                if (n < mDashboard.getChildCount()) {
+                    categoryView = mDashboard.getChildAt(n);
+                } else {
+                    categoryView = mLayoutInflater.inflate(R.layout.dashboard_category,
+                            mDashboard, false);
+                    // Add the category
+                    mDashboard.addView(categoryView);
+                }
+
+                TextView categoryLabel =
+                        (TextView) categoryView.findViewById(R.id.category_title);
+                final CharSequence categoryTitle = category.getTitle(res);
+                if (!TextUtils.equals(categoryLabel.getText(), categoryTitle)) {
+                    categoryLabel.setText(categoryTitle);
+                }
+
+                ViewGroup categoryContent = getCategoryContent(categoryView);
+
+                final int tilesCount = category.getTilesCount();
+                recycleTileViews(categoryContent, tilesCount);
+
+                for (int i = 0; i < tilesCount; i++) {
+                    DashboardTile tile = category.getTile(i);
+
+                    DashboardTileView tileView;
+                    if (i < categoryContent.getChildCount()) {
+                        tileView = (DashboardTileView) categoryContent.getChildAt(i);
+                    } else {
+                        tileView = obtainTileView(context);
+                        categoryContent.addView(tileView);
+                    }
+
+                    // Live summaries are the ones last loaded: nothing is waited for here
+                    final CharSequence summary = getTileSummary(res, summaryLoader, tile);
+                    if (!isSameContent(res, tileView, tile, summary)) {
+                        updateTileView(context, res, tile, summary, tileView.getImageView(),
+                                tileView.getTitleTextView(), tileView.getStatusTextView());
+                    }
+
+                    tileView.setTile(tile);
+                }
+            }
 
-            View categoryView = mLayoutInflater.inflate(R.layout.dashboard_category, mDashboard,
-                    false);
+            // The summaries loaded are pushed to the tiles by updateTileSummaries()
+            summaryLoader.refresh(categories);
 
-            TextView categoryLabel = (TextView) categoryView.findViewById(R.id.category_title);
-            categoryLabel.setText(category.getTitle(res));
+            long delta = System.currentTimeMillis() - start;
+            Log.d(LOG_TAG, "rebuildUI took: " + delta + " ms");
+        } finally {
+            Trace.endSection();
+        }
+    }
 
-            ViewGroup categoryContent =
-                    (ViewGroup) categoryView.findViewById(R.id.category_content);
+    private static ViewGroup getCategoryContent(View categoryView) {
+        return (ViewGroup) categoryView.findViewById(R.id.category_content);
+    }
 
-            final int tilesCount = category.getTilesCount();
-            for (int i = 0; i < tilesCount; i++) {
-                DashboardTile tile = category.getTile(i);
+    /**
+     * Remove the tile views of a category from the given position, and keep them for reuse.
+     */
+    private void recycleTileViews(ViewGroup categoryContent, int from) {
+        final int childCount = categoryContent.getChildCount();
+        for (int i = childCount - 1; i >= from; i--) {
+            final DashboardTileView tileView = (DashboardTileView) categoryContent.getChildAt(i);
+            categoryContent.removeViewAt(i);
+            tileView.setTile(null);
+            mRecycledTileViews.add(tileView);
+        }
+    }
 
-                DashboardTileView tileView = new DashboardTileView(context);
-                updateTileView(context, res, tile, tileView.getImageView(),
-                        tileView.getTitleTextView(), tileView.getStatusTextView());
+    private DashboardTileView obtainTileView(Context context) {
+        final int size = mRecycledTileViews.size();
+        if (size > 0) {
+            return mRecycledTileViews.remove(size - 1);
+        }
+        return new DashboardTileView(context);
+    }
 
-                tileView.setTile(tile);
+    /**
+     * Update the summaries of the tiles displayed to the live summaries last loaded.
+     */
+    private void updateTileSummaries() {
+        if (!isAdded()) {
+            return;
+        }
+        final Resources res = getResources();
+        final TileSummaryLoader summaryLoader = TileSummaryLoader.getInstance(getActivity());
 
-                categoryContent.addView(tileView);
+        final int count = mDashboard.getChildCount();
+        for (int n = 0; n < count; n++) {
+            final ViewGroup categoryContent = getCategoryContent(mDashboard.getChildAt(n));
+            final int tilesCount = categoryContent.getChildCount();
+            for (int i = 0; i < tilesCount; i++) {
+                final DashboardTileView tileView =
+                        (DashboardTileView) categoryContent.getChildAt(i);
+                final DashboardTile tile = tileView.getTile();
+                if (tile == null) {
+                    continue;
+                }
+                final CharSequence summary = getTileSummary(res, summaryLoader, tile);
+                if (!isSummaryDisplayed(tileView.getStatusTextView(), summary)) {
+                    setSummary(tileView.getStatusTextView(), summary);
+                }
             }
+        }
+    }
+
+    /**
+     * Return the live summary of a tile if there is one, or its static summary.
+     */
+    private static CharSequence getTileSummary(Resources res, TileSummaryLoader summaryLoader,
+            DashboardTile tile) {
+        final CharSequence summary = summaryLoader.getSummary(tile);
+        return summary != null ? summary : tile.getSummary(res);
+    }
+
+    private static boolean isSameContent(Resources res, DashboardTileView tileView,
+            DashboardTile tile, CharSequence summary) {
+        final DashboardTile displayed = tileView.getTile();
+        return displayed != null
+                && displayed.iconRes == tile.iconRes
+                && TextUtils.equals(displayed.getTitle(res), tile.getTitle(res))
+                && isSummaryDisplayed(tileView.getStatusTextView(), summary);
+    }
 
-            // Add the category
-            mDashboard.addView(categoryView);
+    private static boolean isSummaryDisplayed(TextView statusTextView, CharSequence summary) {
+        if (TextUtils.isEmpty(summary)) {
+            return statusTextView.getVisibility() == View.GONE;
+        }
+        return statusTextView.getVisibility() == View.VISIBLE
+                && TextUtils.equals(statusTextView.getText(), summary);
+    }
+
+    private static void setSummary(TextView statusTextView, CharSequence summary) {
+        if (!TextUtils.isEmpty(summary)) {
+            statusTextView.setVisibility(View.VISIBLE);
+            statusTextView.setText(summary);
+        } else {
+            statusTextView.setVisibility(View.GONE);
         }
-        long delta = System.currentTimeMillis() - start;
-        Log.d(LOG_TAG, "rebuildUI took: " + delta + " ms");
     }
 
     private void updateTileView(Context context, Resources res, DashboardTile tile,
-            ImageView tileIcon, TextView tileTextView, TextView statusTextView) {
+            CharSequence summary, ImageView tileIcon, TextView tileTextView,
+            TextView statusTextView) {
 
         if (tile.iconRes > 0) {
             tileIcon.setImageResource(tile.iconRes);
@@ -157,13 +333,7 @@ public class DashboardSummary extends Fragment {
 
         tileTextView.setText(tile.getTitle(res));
 
-        CharSequence summary = tile.getSummary(res);
-        if (!TextUtils.isEmpty(summary)) {
-            statusTextView.setVisibility(View.VISIBLE);
-            statusTextView.setText(summary);
-        } else {
-            statusTextView.setVisibility(View.GONE);
-        }
+        setSummary(statusTextView, summary);
     }
 
     private void sendRebuildUI() {
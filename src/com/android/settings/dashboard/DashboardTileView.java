@@ -75,6 +75,10 @@ public class DashboardTileView extends FrameLayout implements View.OnClickListen
         mTile = tile;
     }
 
+    public DashboardTile getTile() {
+        return mTile;
+    }
+
     public void setDividerVisibility(boolean visible) {
         mDivider.setVisibility(visible ? View.VISIBLE : View.GONE);
     }
@@ -90,6 +94,7 @@ public class DashboardTileView extends FrameLayout implements View.OnClickListen
     @Override
     public void onClick(View v) {
         if (mTile.fragment != null) {
+            NavigationHistory.getInstance(getContext()).recordNavigation(mTile.fragment);
             Utils.startWithFragment(getContext(), mTile.fragment, mTile.fragmentArguments, null, 0,
                     mTile.titleRes, mTile.getTitle(getResources()));
         } else if (mTile.intent != null) {
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Trace;
+import android.provider.SearchIndexableResource;
+import android.util.Log;
+
+import com.android.settings.BackgroundExecutor;
+import com.android.settings.PreferenceHierarchyCache;
+import com.android.settings.R;
+import com.android.settings.search.SearchIndexableResources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How often each screen is opened from the dashboard, persisted across processes.
+ *
+ * The screens the most likely to be opened next are warmed up in the background while the
+ * dashboard is idle: their fragment class is loaded and initialized, and their preference XML is
+ * parsed into the {@link PreferenceHierarchyCache}, so that opening them does not pay for it.
+ */
+public final class NavigationHistory {
+
+    private static final String LOG_TAG = "NavigationHistory";
+
+    private static final String SHARED_PREFERENCES_NAME = "navigation_history";
+
+    private static final String FRAGMENT_WIFI = "com.android.settings.wifi.WifiSettings";
+    private static final String FRAGMENT_BATTERY =
+            "com.android.settings.fuelgauge.PowerUsageSummary";
+    private static final String FRAGMENT_APPS =
+            "com.android.settings.applications.ManageApplications";
+
+    // Screens most users open, warmed up until the history tells otherwise
+    private static final String[] DEFAULT_FRAGMENTS = {
+            FRAGMENT_WIFI, FRAGMENT_BATTERY, FRAGMENT_APPS };
+    private static final int DEFAULT_COUNT = 1;
+
+    // Counts are halved past this total, so that the recent habits weigh more
+    private static final int MAX_TOTAL_COUNT = 100;
+
+    private static final int WARM_UP_COUNT = 3;
+
+    private static NavigationHistory sInstance;
+
+    private final Context mContext;
+
+    // Loaded on first use, in the background
+    private Map<String, Integer> mCounts;
+
+    // Fragments already warmed up by this process
+    private final Set<String> mWarmedUp = new HashSet<String>();
+    private boolean mIsWarmingUp;
+
+    public static synchronized NavigationHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NavigationHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NavigationHistory(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Record that a screen has been opened from the dashboard.
+     */
+    public void recordNavigation(final String fragmentName) {
+        BackgroundExecutor.getInstance().execute(BackgroundExecutor.PRIORITY_MAINTENANCE,
+                new Runnable() {
+            @Override
+            public void run() {
+                synchronized (NavigationHistory.this) {
+                    final Map<String, Integer> counts = getCounts();
+                    final Integer count = counts.get(fragmentName);
+                    counts.put(fragmentName, count != null ? count + 1 : 1);
+                    save(counts);
+                }
+            }
+        });
+    }
+
+    /**
+     * Warm up, in the background, the screens the most likely to be opened next that have not
+     * been warmed up yet by this process.
+     */
+    public void warmUp() {
+        synchronized (this) {
+            if (mIsWarmingUp) {
+                return;
+            }
+            mIsWarmingUp = true;
+        }
+
+        BackgroundExecutor.getInstance().execute(BackgroundExecutor.PRIORITY_PREFETCH,
+                new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final List<String> fragments;
+                    synchronized (NavigationHistory.this) {
+                        fragments = getMostLikely(WARM_UP_COUNT);
+                        fragments.removeAll(mWarmedUp);
+                    }
+                    for (String fragmentName : fragments) {
+                        warmUp(fragmentName);
+                        synchronized (NavigationHistory.this) {
+                            mWarmedUp.add(fragmentName);
+                        }
+                    }
+                } finally {
+                    synchronized (NavigationHistory.this) {
+                        mIsWarmingUp = false;
+                    }
+                }
+            }
+        });
+    }
+
+    private void warmUp(String fragmentName) {
+        Trace.beginSection("NavigationHistory.warmUp");
+        try {
+            // The class is loaded by the same class loader as Fragment.instantiate() uses
+            Class.forName(fragmentName, true, mContext.getClassLoader());
+
+            final int xmlResId = getPreferencesResId(fragmentName);
+            if (xmlResId != SearchIndexableResources.NO_DATA_RES_ID) {
+                PreferenceHierarchyCache.prepare(mContext, xmlResId);
+            }
+        } catch (ClassNotFoundException e) {
+            Log.w(LOG_TAG, "Cannot warm up unknown fragment: " + fragmentName);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Return the preference XML inflated by a fragment, or NO_DATA_RES_ID if unknown.
+     */
+    private static int getPreferencesResId(String fragmentName) {
+        switch (fragmentName) {
+            case FRAGMENT_WIFI:
+                return R.xml.wifi_settings;
+            case FRAGMENT_BATTERY:
+                // Not a SettingsPreferenceFragment, its preferences are never inflated from a
+                // cached model
+            case FRAGMENT_APPS:
+                // Not a preference screen
+                return SearchIndexableResources.NO_DATA_RES_ID;
+            default:
+                final SearchIndexableResource res =
+                        SearchIndexableResources.getResourceByName(fragmentName);
+                return res != null ? res.xmlResId : SearchIndexableResources.NO_DATA_RES_ID;
+        }
+    }
+
+    private List<String> getMostLikely(int count) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>(getCounts());
+        for (String fragmentName : DEFAULT_FRAGMENTS) {
+            if (!counts.containsKey(fragmentName)) {
+                counts.put(fragmentName, DEFAULT_COUNT);
+            }
+        }
+
+        final List<String> fragments = new ArrayList<String>(counts.keySet());
+        Collections.sort(fragments, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return counts.get(rhs) - counts.get(lhs);
+            }
+        });
+        return new ArrayList<String>(fragments.subList(0, Math.min(count, fragments.size())));
+    }
+
+    private SharedPreferences getPreferences() {
+        return mContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private Map<String, Integer> getCounts() {
+        if (mCounts == null) {
+            mCounts = new HashMap<String, Integer>();
+            for (Map.Entry<String, ?> entry : getPreferences().getAll().entrySet()) {
+                if (entry.getValue() instanceof Integer) {
+                    mCounts.put(entry.getKey(), (Integer) entry.getValue());
+                }
+            }
+        }
+        return mCounts;
+    }
+
+    private void save(Map<String, Integer> counts) {
+        int total = 0;
+        for (int count : counts.values()) {
+            total += count;
+        }
+        if (total > MAX_TOTAL_COUNT) {
+            final List<String> fragments = new ArrayList<String>(counts.keySet());
+            for (String fragmentName : fragments) {
+                final int count = counts.get(fragmentName) / 2;
+                if (count > 0) {
+                    counts.put(fragmentName, count);
+                } else {
+                    counts.remove(fragmentName);
+                }
+            }
+        }
+
+        final SharedPreferences.Editor editor = getPreferences().edit();
+        editor.clear();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            editor.putInt(entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+}
@@ -23,14 +23,19 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
@@ -53,6 +58,12 @@ public class SearchResultsSummary extends Fragment {
 
     private static final String SAVE_KEY_SHOW_RESULTS = ":settings:show_results";
 
+    // Number of search results loaded at once, more are loaded when scrolling to the end
+    private static final int SEARCH_RESULTS_PAGE_SIZE = 30;
+
+    // Delay after the last keystroke before querying the Index
+    private static final long SEARCH_RESULTS_DELAY = 100;
+
     private SearchView mSearchView;
 
     private ListView mResultsListView;
@@ -70,24 +81,87 @@ public class SearchResultsSummary extends Fragment {
 
     private boolean mShowResults;
 
+    // Query whose results are shown, and the number of them requested so far
+    private String mResultsQuery;
+    private int mResultsLimit = SEARCH_RESULTS_PAGE_SIZE;
+
+    // Last query known to have no results: its refinements do not have any result either, as
+    // long as the Index is still at the same generation
+    private String mNoResultsQuery;
+    private int mNoResultsGeneration;
+
+    private final Handler mHandler = new Handler();
+
+    private final Runnable mUpdateSearchResultsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateSearchResults();
+        }
+    };
+
     /**
-     * A basic AsyncTask for updating the query results cursor
+     * A basic AsyncTask for loading a page of query results: the first one replaces the results
+     * shown, the next ones are appended to them.
      */
-    private class UpdateSearchResultsTask extends AsyncTask<String, Void, Cursor> {
+    private class UpdateSearchResultsTask extends AsyncTask<Void, Void, Cursor> {
+        private final String mTaskQuery;
+        private final int mOffset;
+        private final int mGeneration;
+        private final CancellationSignal mCancellationSignal = new CancellationSignal();
+
+        public UpdateSearchResultsTask(String query, int offset) {
+            mTaskQuery = query;
+            mOffset = offset;
+            // Taken before querying: an update done meanwhile invalidates what is found
+            mGeneration = Index.getInstance(getActivity()).getGeneration();
+        }
+
+        /**
+         * Cancel the task and interrupt its query if it is running.
+         */
+        public void cancelQuery() {
+            cancel(false);
+            mCancellationSignal.cancel();
+        }
+
         @Override
-        protected Cursor doInBackground(String... params) {
-            return Index.getInstance(getActivity()).search(params[0]);
+        protected Cursor doInBackground(Void... params) {
+            try {
+                // The query has run once search() returns
+                return Index.getInstance(getActivity()).search(mTaskQuery,
+                        SEARCH_RESULTS_PAGE_SIZE, mOffset, mCancellationSignal);
+            } catch (OperationCanceledException e) {
+                return null;
+            }
         }
 
         @Override
         protected void onPostExecute(Cursor cursor) {
-            if (!isCancelled()) {
+            if (!isCancelled() && cursor != null) {
+                mUpdateSearchResultsTask = null;
+                if (mOffset > 0) {
+                    appendResultsCursor(cursor);
+                    return;
+                }
+                mResultsQuery = mTaskQuery;
+                final boolean hasResults = cursor.getCount() > 0;
+                if (!hasResults) {
+                    mNoResultsQuery = mTaskQuery;
+                    mNoResultsGeneration = mGeneration;
+                }
                 setResultsCursor(cursor);
-                setResultsVisibility(cursor.getCount() > 0);
+                setResultsVisibility(hasResults);
             } else if (cursor != null) {
                 cursor.close();
             }
         }
+
+        @Override
+        protected void onCancelled(Cursor cursor) {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 
     /**
@@ -108,6 +182,13 @@ public class SearchResultsSummary extends Fragment {
                 cursor.close();
             }
         }
+
+        @Override
+        protected void onCancelled(Cursor cursor) {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
     }
 
     @Override
@@ -133,6 +214,9 @@ public class SearchResultsSummary extends Fragment {
     public void onStop() {
         super.onStop();
 
+        mHandler.removeCallbacks(mUpdateSearchResultsRunnable);
+        mNoResultsQuery = null;
+
         clearSuggestions();
         clearResults();
     }
@@ -211,6 +295,19 @@ public class SearchResultsSummary extends Fragment {
                 saveQueryToDatabase();
             }
         });
+        mResultsListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount) {
+                    loadMoreSearchResults();
+                }
+            }
+        });
         mResultsListView.addHeaderView(
                 LayoutInflater.from(getActivity()).inflate(
                         R.layout.search_panel_results_header, mResultsListView, false),
@@ -295,7 +392,7 @@ public class SearchResultsSummary extends Fragment {
         } else {
             mShowResults = true;
             setSuggestionsVisibility(false);
-            updateSearchResults();
+            scheduleSearchResultsUpdate();
         }
 
         return true;
@@ -327,7 +424,7 @@ public class SearchResultsSummary extends Fragment {
 
     private void clearResults() {
         if (mUpdateSearchResultsTask != null) {
-            mUpdateSearchResultsTask.cancel(false);
+            mUpdateSearchResultsTask.cancelQuery();
             mUpdateSearchResultsTask = null;
         }
         setResultsCursor(null);
@@ -337,12 +434,25 @@ public class SearchResultsSummary extends Fragment {
         if (mResultsAdapter == null) {
             return;
         }
+        if (cursor == null) {
+            mResultsQuery = null;
+        }
         Cursor oldCursor = mResultsAdapter.swapCursor(cursor);
         if (oldCursor != null) {
             oldCursor.close();
         }
     }
 
+    private void appendResultsCursor(Cursor page) {
+        final Cursor cursor = (mResultsAdapter != null) ? mResultsAdapter.mCursor : null;
+        if (cursor == null || page.getCount() == 0) {
+            page.close();
+            return;
+        }
+        // The results shown so far are part of the merged cursor, they must not be closed
+        mResultsAdapter.swapCursor(new MergeCursor(new Cursor[] { cursor, page }));
+    }
+
     private String getFilteredQueryString(CharSequence query) {
         if (query == null) {
             return null;
@@ -359,8 +469,9 @@ public class SearchResultsSummary extends Fragment {
     }
 
     private void clearAllTasks() {
+        mHandler.removeCallbacks(mUpdateSearchResultsRunnable);
         if (mUpdateSearchResultsTask != null) {
-            mUpdateSearchResultsTask.cancel(false);
+            mUpdateSearchResultsTask.cancelQuery();
             mUpdateSearchResultsTask = null;
         }
         if (mUpdateSuggestionsTask != null) {
@@ -373,21 +484,78 @@ public class SearchResultsSummary extends Fragment {
         clearAllTasks();
         if (mQuery == null) {
             setSuggestionsCursor(null);
+        } else if (Index.getInstance(getActivity()).areSavedQueriesLoaded()) {
+            // Suggestions are served from memory, no need to wait for the next frames
+            final Cursor cursor = Index.getInstance(getActivity()).getSuggestions(mQuery);
+            setSuggestionsCursor(cursor);
+            setSuggestionsVisibility(cursor.getCount() > 0);
         } else {
             mUpdateSuggestionsTask = new UpdateSuggestionsTask();
             mUpdateSuggestionsTask.execute(mQuery);
         }
     }
 
+    /**
+     * Update the search results once the user stopped typing for a moment. Any query still
+     * running for a previous text is interrupted right away.
+     */
+    private void scheduleSearchResultsUpdate() {
+        clearAllTasks();
+        if (isRefinementOfNoResultsQuery(mQuery)) {
+            setResultsVisibility(false);
+            setResultsCursor(null);
+            return;
+        }
+        mHandler.postDelayed(mUpdateSearchResultsRunnable, SEARCH_RESULTS_DELAY);
+    }
+
+    /**
+     * Return whether the query only extends the last word of a query that had no results, so
+     * that it cannot have any either. Another word may match on its own (e.g. "zz OR wifi").
+     */
+    private boolean isRefinementOfNoResultsQuery(String query) {
+        if (TextUtils.isEmpty(mNoResultsQuery) || mNoResultsGeneration
+                != Index.getInstance(getActivity()).getGeneration()) {
+            // The Index has been updated since, the query may have results now
+            return false;
+        }
+        if (query == null || !query.startsWith(mNoResultsQuery)
+                || Character.isWhitespace(mNoResultsQuery.charAt(mNoResultsQuery.length() - 1))) {
+            return false;
+        }
+        final int length = query.length();
+        for (int n = mNoResultsQuery.length(); n < length; n++) {
+            if (Character.isWhitespace(query.charAt(n))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void updateSearchResults() {
         clearAllTasks();
-        if (TextUtils.isEmpty(mQuery)) {
+        if (TextUtils.isEmpty(mQuery) || isRefinementOfNoResultsQuery(mQuery)) {
             setResultsVisibility(false);
             setResultsCursor(null);
         } else {
-            mUpdateSearchResultsTask = new UpdateSearchResultsTask();
-            mUpdateSearchResultsTask.execute(mQuery);
+            mResultsLimit = SEARCH_RESULTS_PAGE_SIZE;
+            mUpdateSearchResultsTask = new UpdateSearchResultsTask(mQuery, 0);
+            mUpdateSearchResultsTask.execute();
+        }
+    }
+
+    /**
+     * Load the next page of results of the query shown and append it to them.
+     */
+    private void loadMoreSearchResults() {
+        // There can be more results only if the last page has been filled up
+        if (mUpdateSearchResultsTask != null || mResultsAdapter == null
+                || mResultsQuery == null || mResultsAdapter.getCount() < mResultsLimit) {
+            return;
         }
+        mUpdateSearchResultsTask = new UpdateSearchResultsTask(mResultsQuery, mResultsLimit);
+        mResultsLimit += SEARCH_RESULTS_PAGE_SIZE;
+        mUpdateSearchResultsTask.execute();
     }
 
     private static class SuggestionItem {
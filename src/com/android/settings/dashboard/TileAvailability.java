@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.nfc.NfcAdapter;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.INetworkManagementService;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.telephony.TelephonyIntents;
+import com.android.internal.util.ArrayUtils;
+import com.android.settings.BackgroundExecutor;
+import com.android.settings.R;
+import com.android.settings.Utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Availability of the dashboard tiles depending on the device features and state.
+ *
+ * Evaluating it takes a binder call per tile, so the dashboard is rendered from the last known
+ * availability (persisted across processes) while it is evaluated again in the background, once
+ * per process and whenever a relevant broadcast is received. Listeners are told when it changes.
+ *
+ * Until the availability has been evaluated once, after an install or an update, the tiles
+ * depending on the device are considered unavailable.
+ *
+ * No broadcast tells when the user restrictions change: the tiles depending on them are checked
+ * each time their availability is asked, which is a cheap call.
+ */
+public final class TileAvailability {
+
+    private static final String LOG_TAG = "TileAvailability";
+
+    private static final String SHARED_PREFERENCES_NAME = "tile_availability";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_UNAVAILABLE_TILES = "unavailable_tiles";
+    private static final String SEPARATOR = ",";
+
+    // Embedding into Settings is supported from SuperSU v1.85 and up
+    private static final String SUPERSU_PACKAGE_NAME = "eu.chainfire.supersu";
+    private static final int SUPERSU_MIN_VERSION_CODE = 185;
+
+    /**
+     * Listener told, on the main thread, when the availability of some tiles has changed.
+     */
+    public interface Listener {
+        public void onTileAvailabilityChanged();
+    }
+
+    private static TileAvailability sInstance;
+
+    private final Context mContext;
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    // The tiles evaluated in the background, see submitChecks()
+    private static final int[] DEVICE_TILES = {
+            R.id.wifi_settings, R.id.bluetooth_settings, R.id.sim_settings,
+            R.id.data_usage_settings, R.id.user_settings, R.id.nfc_payment_settings,
+            R.id.print_settings, R.id.supersu_settings };
+
+    // The ids of the tiles last known to be unavailable, null until known
+    private SparseBooleanArray mUnavailableTiles;
+    private boolean mIsLoaded;
+    private boolean mNeedsEvaluation = true;
+    private boolean mIsEvaluating;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data != null
+                    && !SUPERSU_PACKAGE_NAME.equals(data.getSchemeSpecificPart())) {
+                return;
+            }
+            invalidate();
+        }
+    };
+
+    public static synchronized TileAvailability getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TileAvailability(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TileAvailability(Context context) {
+        mContext = context;
+
+        final IntentFilter filter = new IntentFilter(NfcAdapter.ACTION_ADAPTER_STATE_CHANGED);
+        filter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        mContext.registerReceiver(mReceiver, filter);
+
+        final IntentFilter packageFilter = new IntentFilter(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(mReceiver, packageFilter);
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Return whether a tile is available, as last known. Tiles whose availability does not depend
+     * on the device are always available.
+     *
+     * The tiles depending on the device are unavailable until the availability is first known,
+     * after an install or an update: the listeners are told once {@link #refreshIfNeeded()} has
+     * evaluated it.
+     */
+    public boolean isAvailable(int tileId) {
+        if (tileId == R.id.development_settings) {
+            final UserManager um = (UserManager) mContext.getSystemService(Context.USER_SERVICE);
+            return !um.hasUserRestriction(UserManager.DISALLOW_DEBUGGING_FEATURES);
+        }
+        synchronized (this) {
+            if (!mIsLoaded) {
+                mUnavailableTiles = load();
+                mIsLoaded = true;
+            }
+            if (mUnavailableTiles == null) {
+                return !ArrayUtils.contains(DEVICE_TILES, tileId);
+            }
+            return !mUnavailableTiles.get(tileId);
+        }
+    }
+
+    /**
+     * Evaluate the availability again in the background, if it may have changed since the last
+     * evaluation.
+     */
+    public void refreshIfNeeded() {
+        synchronized (this) {
+            if (!mNeedsEvaluation || mIsEvaluating) {
+                return;
+            }
+            mNeedsEvaluation = false;
+            mIsEvaluating = true;
+        }
+
+        // The task waiting for the checks is queued after them with the same priority: they are
+        // all running or done once it runs, so it cannot hold back the threads they need.
+        final long start = System.currentTimeMillis();
+        final List<Integer> tileIds = new ArrayList<Integer>();
+        final List<Future<Boolean>> results = submitChecks(tileIds);
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                final SparseBooleanArray unavailableTiles =
+                        collectResults(tileIds, results, start);
+                final boolean changed;
+                synchronized (TileAvailability.this) {
+                    changed = !isSame(unavailableTiles, mUnavailableTiles);
+                    mUnavailableTiles = unavailableTiles;
+                }
+                if (changed) {
+                    save(unavailableTiles);
+                }
+                return changed;
+            }
+
+            @Override
+            protected void onPostExecute(Boolean changed) {
+                final boolean needsEvaluation;
+                synchronized (TileAvailability.this) {
+                    mIsEvaluating = false;
+                    needsEvaluation = mNeedsEvaluation;
+                }
+                if (changed) {
+                    notifyListeners();
+                }
+                if (needsEvaluation) {
+                    // Invalidated while evaluating
+                    refreshIfNeeded();
+                }
+            }
+        }.executeOnExecutor(BackgroundExecutor.getInstance().getExecutor(
+                BackgroundExecutor.PRIORITY_VISIBLE));
+    }
+
+    private void invalidate() {
+        synchronized (this) {
+            mNeedsEvaluation = true;
+        }
+        refreshIfNeeded();
+    }
+
+    private void notifyListeners() {
+        final List<Listener> listeners;
+        synchronized (mListeners) {
+            listeners = new ArrayList<Listener>(mListeners);
+        }
+        for (Listener listener : listeners) {
+            listener.onTileAvailabilityChanged();
+        }
+    }
+
+    /**
+     * Submit all the checks to the {@link BackgroundExecutor}. Keep DEVICE_TILES in sync.
+     *
+     * @param tileIds filled with the id of the tile of each check.
+     * @return the result of each check, true if its tile is available.
+     */
+    private List<Future<Boolean>> submitChecks(List<Integer> tileIds) {
+        final PackageManager pm = mContext.getPackageManager();
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+        submit(tileIds, results, R.id.wifi_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return pm.hasSystemFeature(PackageManager.FEATURE_WIFI);
+            }
+        });
+        submit(tileIds, results, R.id.bluetooth_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH);
+            }
+        });
+        submit(tileIds, results, R.id.sim_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                // Show the SIM Cards setting if there are more than 2 SIMs installed.
+                return Utils.showSimCardTile(mContext);
+            }
+        });
+        submit(tileIds, results, R.id.data_usage_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                // Remove data usage when kernel module not enabled
+                final INetworkManagementService netManager = INetworkManagementService.Stub
+                        .asInterface(ServiceManager.getService(
+                                Context.NETWORKMANAGEMENT_SERVICE));
+                try {
+                    return netManager.isBandwidthControlEnabled();
+                } catch (RemoteException e) {
+                    return true;
+                }
+            }
+        });
+        submit(tileIds, results, R.id.user_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return UserHandle.MU_ENABLED && UserManager.supportsMultipleUsers()
+                        && !Utils.isMonkeyRunning();
+            }
+        });
+        submit(tileIds, results, R.id.nfc_payment_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (!pm.hasSystemFeature(PackageManager.FEATURE_NFC)) {
+                    return false;
+                }
+                // Only show if NFC is on and we have the HCE feature
+                final NfcAdapter adapter = NfcAdapter.getDefaultAdapter(mContext);
+                return adapter != null && adapter.isEnabled()
+                        && pm.hasSystemFeature(PackageManager.FEATURE_NFC_HOST_CARD_EMULATION);
+            }
+        });
+        submit(tileIds, results, R.id.print_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return pm.hasSystemFeature(PackageManager.FEATURE_PRINTING);
+            }
+        });
+        submit(tileIds, results, R.id.supersu_settings, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                try {
+                    return pm.getPackageInfo(SUPERSU_PACKAGE_NAME, 0).versionCode
+                            >= SUPERSU_MIN_VERSION_CODE;
+                } catch (PackageManager.NameNotFoundException e) {
+                    return false;
+                }
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Wait for the checks and return the ids of the unavailable tiles.
+     */
+    private SparseBooleanArray collectResults(List<Integer> tileIds,
+            List<Future<Boolean>> results, long start) {
+        final SparseBooleanArray unavailableTiles = new SparseBooleanArray();
+        final int count = results.size();
+        for (int n = 0; n < count; n++) {
+            boolean available = true;
+            try {
+                available = results.get(n).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Cannot evaluate the availability of tile: " + tileIds.get(n), e);
+            }
+            if (!available) {
+                unavailableTiles.put(tileIds.get(n), true);
+            }
+        }
+        Log.d(LOG_TAG, "Evaluating tile availability took: " +
+                (System.currentTimeMillis() - start) + " ms");
+        return unavailableTiles;
+    }
+
+    private static boolean isSame(SparseBooleanArray first, SparseBooleanArray second) {
+        if (first == null || second == null || first.size() != second.size()) {
+            return false;
+        }
+        final int count = first.size();
+        for (int n = 0; n < count; n++) {
+            if (first.keyAt(n) != second.keyAt(n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void submit(List<Integer> tileIds, List<Future<Boolean>> results, int tileId,
+            Callable<Boolean> check) {
+        tileIds.add(tileId);
+        results.add(BackgroundExecutor.getInstance().submit(
+                BackgroundExecutor.PRIORITY_VISIBLE, check));
+    }
+
+    /**
+     * Tile ids are resource ids: what has been saved is only valid for the same APK.
+     */
+    private String getVersion() {
+        final File apk = new File(mContext.getApplicationInfo().sourceDir);
+        return Build.FINGERPRINT + '|' + apk.lastModified();
+    }
+
+    private SharedPreferences getPreferences() {
+        return mContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private SparseBooleanArray load() {
+        final SharedPreferences prefs = getPreferences();
+        if (!getVersion().equals(prefs.getString(KEY_VERSION, null))) {
+            return null;
+        }
+        final SparseBooleanArray result = new SparseBooleanArray();
+        final String value = prefs.getString(KEY_UNAVAILABLE_TILES, "");
+        for (String id : TextUtils.split(value, SEPARATOR)) {
+            try {
+                result.put(Integer.parseInt(id), true);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private void save(SparseBooleanArray unavailableTiles) {
+        final StringBuilder sb = new StringBuilder();
+        final int count = unavailableTiles.size();
+        for (int n = 0; n < count; n++) {
+            if (n > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(unavailableTiles.keyAt(n));
+        }
+        getPreferences().edit()
+                .putString(KEY_VERSION, getVersion())
+                .putString(KEY_UNAVAILABLE_TILES, sb.toString())
+                .apply();
+    }
+}
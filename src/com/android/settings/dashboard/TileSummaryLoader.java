@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.util.ArrayUtils;
+import com.android.settings.BackgroundExecutor;
+import com.android.settings.DataUsageSummary;
+import com.android.settings.deviceinfo.Memory;
+import com.android.settings.fuelgauge.PowerUsageSummary;
+import com.android.settings.wifi.WifiSettings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads the live summaries of the dashboard tiles from their {@link TileSummaryProvider}.
+ *
+ * The dashboard is always rendered from the summaries last loaded, and they are loaded again in
+ * a single background batch where the providers run concurrently. The listeners are told once the
+ * batch is done, if any summary has changed. A provider taking more than its time budget does not
+ * hold the batch back: its summary is kept for the next time the dashboard is rendered.
+ */
+public final class TileSummaryLoader {
+
+    private static final String LOG_TAG = "TileSummaryLoader";
+
+    // Time each provider is given from the start of the batch, as they run concurrently
+    private static final long PROVIDER_TIME_BUDGET_MS = 500;
+
+    // The fragments having a summary provider, keep in sync with getProvider()
+    private static final String[] PROVIDER_FRAGMENTS = {
+            "com.android.settings.wifi.WifiSettings",
+            "com.android.settings.DataUsageSummary",
+            "com.android.settings.deviceinfo.Memory",
+            "com.android.settings.fuelgauge.PowerUsageSummary" };
+
+    /**
+     * Listener told, on the main thread, when some summaries have changed.
+     */
+    public interface Listener {
+        public void onTileSummariesChanged();
+    }
+
+    private static TileSummaryLoader sInstance;
+
+    private final Context mContext;
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    // The summaries last loaded, by tile fragment
+    private final Map<String, CharSequence> mSummaries = new HashMap<String, CharSequence>();
+
+    // Only accessed from the main thread
+    private boolean mIsLoading;
+
+    public static synchronized TileSummaryLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TileSummaryLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TileSummaryLoader(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Return whether a fragment has a summary provider, without loading the fragment class.
+     */
+    private static boolean hasProvider(String fragmentName) {
+        return fragmentName != null && ArrayUtils.contains(PROVIDER_FRAGMENTS, fragmentName);
+    }
+
+    /**
+     * Return the summary provider of a fragment, or null if it has none.
+     *
+     * This loads and initializes the fragment class, which can take a while for the larger ones:
+     * only called on the background threads of the batch.
+     */
+    private static TileSummaryProvider getProvider(String fragmentName) {
+        switch (fragmentName) {
+            case "com.android.settings.wifi.WifiSettings":
+                return WifiSettings.SUMMARY_PROVIDER;
+            case "com.android.settings.DataUsageSummary":
+                return DataUsageSummary.SUMMARY_PROVIDER;
+            case "com.android.settings.deviceinfo.Memory":
+                return Memory.SUMMARY_PROVIDER;
+            case "com.android.settings.fuelgauge.PowerUsageSummary":
+                return PowerUsageSummary.SUMMARY_PROVIDER;
+            default:
+                return null;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Return the summary last loaded for a tile, or null if there is none.
+     */
+    public CharSequence getSummary(DashboardTile tile) {
+        if (tile.fragment == null) {
+            return null;
+        }
+        synchronized (mSummaries) {
+            return mSummaries.get(tile.fragment);
+        }
+    }
+
+    /**
+     * Load the summaries of the given tiles again in the background, unless they are already
+     * being loaded. Must be called on the main thread.
+     */
+    public void refresh(List<DashboardCategory> categories) {
+        if (mIsLoading) {
+            return;
+        }
+
+        final List<String> fragments = new ArrayList<String>();
+        for (DashboardCategory category : categories) {
+            final int count = category.getTilesCount();
+            for (int n = 0; n < count; n++) {
+                final String fragment = category.getTile(n).fragment;
+                if (hasProvider(fragment) && !fragments.contains(fragment)) {
+                    fragments.add(fragment);
+                }
+            }
+        }
+        if (fragments.isEmpty()) {
+            return;
+        }
+
+        mIsLoading = true;
+        // The task waiting for the providers is queued after them with the same priority: they
+        // are all running or done once it runs, so it cannot hold back the threads they need.
+        final long start = SystemClock.elapsedRealtime();
+        final List<Future<Boolean>> results = submitProviders(fragments);
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                return collectResults(fragments, results, start);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean changed) {
+                mIsLoading = false;
+                if (changed) {
+                    notifyListeners();
+                }
+            }
+        }.executeOnExecutor(BackgroundExecutor.getInstance().getExecutor(
+                BackgroundExecutor.PRIORITY_VISIBLE));
+    }
+
+    private void notifyListeners() {
+        final List<Listener> listeners;
+        synchronized (mListeners) {
+            listeners = new ArrayList<Listener>(mListeners);
+        }
+        for (Listener listener : listeners) {
+            listener.onTileSummariesChanged();
+        }
+    }
+
+    /**
+     * Submit the providers of the given fragments to the {@link BackgroundExecutor}.
+     *
+     * @return whether the summary of each fragment has changed.
+     */
+    private List<Future<Boolean>> submitProviders(List<String> fragments) {
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final String fragment : fragments) {
+            results.add(BackgroundExecutor.getInstance().submit(
+                    BackgroundExecutor.PRIORITY_VISIBLE, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    final CharSequence summary = getProvider(fragment).getSummary(mContext);
+                    synchronized (mSummaries) {
+                        final boolean changed = !mSummaries.containsKey(fragment)
+                                || !TextUtils.equals(mSummaries.get(fragment), summary);
+                        mSummaries.put(fragment, summary);
+                        return changed;
+                    }
+                }
+            }));
+        }
+        return results;
+    }
+
+    /**
+     * Wait for the providers and return whether any of the summaries loaded within the time
+     * budget has changed.
+     */
+    private boolean collectResults(List<String> fragments, List<Future<Boolean>> results,
+            long start) {
+        final long deadline = start + PROVIDER_TIME_BUDGET_MS;
+        boolean changed = false;
+        final int count = results.size();
+        for (int n = 0; n < count; n++) {
+            try {
+                final long timeout = Math.max(0, deadline - SystemClock.elapsedRealtime());
+                changed |= results.get(n).get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Still running: the summary will be shown the next time
+                Log.w(LOG_TAG, "Summary of " + fragments.get(n) + " took longer than "
+                        + PROVIDER_TIME_BUDGET_MS + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Cannot load the summary of " + fragments.get(n), e);
+            }
+        }
+        Log.d(LOG_TAG, "Loading tile summaries took: " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+        return changed;
+    }
+}
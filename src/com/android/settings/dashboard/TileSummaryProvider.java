@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.content.Context;
+
+/**
+ * Interface for fragments providing a live summary for their dashboard tile, such as the battery
+ * level or the storage used.
+ *
+ * Fragments implementing it expose it as a static SUMMARY_PROVIDER field, registered in
+ * {@link TileSummaryLoader}.
+ */
+public interface TileSummaryProvider {
+
+    /**
+     * Return the summary to show in the tile of the fragment.
+     *
+     * Called on a background thread, with the application context. The summary is shown the
+     * next time the dashboard is rendered if it takes too long.
+     *
+     * @param context the application context.
+     * @return the summary, or null for showing the static summary of the tile.
+     */
+    CharSequence getSummary(Context context);
+}
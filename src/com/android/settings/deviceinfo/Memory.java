@@ -34,6 +34,7 @@ import android.os.Environment;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.StatFs;
 import android.os.UserManager;
 import android.os.storage.IMountService;
 import android.os.storage.StorageEventListener;
@@ -44,6 +45,7 @@ import android.preference.Preference;
 import android.preference.PreferenceScreen;
 import android.preference.Preference.OnPreferenceChangeListener;
 import android.provider.Settings;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -54,6 +56,7 @@ import com.android.settings.R;
 import com.android.settings.SettingsActivity;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
+import com.android.settings.dashboard.TileSummaryProvider;
 import com.android.settings.search.BaseSearchIndexProvider;
 import com.android.settings.search.Indexable;
 import com.android.settings.search.SearchIndexableRaw;
@@ -473,6 +476,21 @@ public class Memory extends SettingsPreferenceFragment
         }
     }
 
+    /**
+     * Show how much of the internal storage is used in the dashboard.
+     */
+    public static final TileSummaryProvider SUMMARY_PROVIDER = new TileSummaryProvider() {
+        @Override
+        public CharSequence getSummary(Context context) {
+            final StatFs stat = new StatFs(Environment.getDataDirectory().getPath());
+            final long totalBytes = stat.getTotalBytes();
+            final long usedBytes = totalBytes - stat.getAvailableBytes();
+            return context.getString(R.string.dashboard_storage_summary,
+                    Formatter.formatShortFileSize(context, usedBytes),
+                    Formatter.formatShortFileSize(context, totalBytes));
+        }
+    };
+
     /**
      * Enable indexing of searchable data
      */
@@ -17,6 +17,7 @@
 package com.android.settings.deviceinfo;
 
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -33,6 +34,7 @@ import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.os.storage.StorageVolume;
@@ -40,6 +42,7 @@ import android.util.Log;
 import android.util.SparseLongArray;
 
 import com.android.internal.app.IMediaContainerService;
+import com.android.settings.CacheRegistry;
 import com.google.android.collect.Maps;
 import com.google.android.collect.Sets;
 
@@ -48,6 +51,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -80,6 +84,35 @@ public class StorageMeasurement {
     @GuardedBy("sInstances")
     private static HashMap<StorageVolume, StorageMeasurement> sInstances = Maps.newHashMap();
 
+    // Measurements no screen is listening to are dropped once Settings is hidden
+    private static final CacheRegistry.TrimmableCache sInstancesTrimmer =
+            new CacheRegistry.TrimmableCache() {
+        @Override
+        public void trimMemory(int level) {
+            if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                return;
+            }
+            synchronized (sInstances) {
+                final Iterator<StorageMeasurement> it = sInstances.values().iterator();
+                while (it.hasNext()) {
+                    final StorageMeasurement measurement = it.next();
+                    final WeakReference<MeasurementReceiver> receiver = measurement.mReceiver;
+                    if (receiver == null || receiver.get() == null) {
+                        measurement.cleanUp();
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (sInstances) {
+                return sInstances.size();
+            }
+        }
+    };
+
     /**
      * Obtain shared instance of {@link StorageMeasurement} for given physical
      * {@link StorageVolume}, or internal storage if {@code null}.
@@ -90,6 +123,8 @@ public class StorageMeasurement {
             if (value == null) {
                 value = new StorageMeasurement(context.getApplicationContext(), volume);
                 sInstances.put(volume, value);
+                CacheRegistry.getInstance(context).register("StorageMeasurement.sInstances",
+                        sInstancesTrimmer);
             }
             return value;
         }
@@ -158,6 +193,9 @@ public class StorageMeasurement {
 
     private final MeasurementHandler mHandler;
 
+    // Shared by the measurements of all the volumes, which are serialized
+    private static HandlerThread sHandlerThread;
+
     private long mTotalSize;
     private long mAvailSize;
 
@@ -168,10 +206,19 @@ public class StorageMeasurement {
         mIsInternal = volume == null;
         mIsPrimary = volume != null ? volume.isPrimary() : false;
 
-        // Start the thread that will measure the disk usage.
-        final HandlerThread handlerThread = new HandlerThread("MemoryMeasurement");
-        handlerThread.start();
-        mHandler = new MeasurementHandler(context, handlerThread.getLooper());
+        mHandler = new MeasurementHandler(context, getMeasurementLooper());
+    }
+
+    /**
+     * Return the looper of the thread measuring the disk usage, starting it if needed.
+     */
+    private static synchronized Looper getMeasurementLooper() {
+        if (sHandlerThread == null) {
+            sHandlerThread = new HandlerThread("MemoryMeasurement",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            sHandlerThread.start();
+        }
+        return sHandlerThread.getLooper();
     }
 
     public void setReceiver(MeasurementReceiver receiver) {
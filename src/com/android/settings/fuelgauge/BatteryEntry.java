@@ -17,6 +17,7 @@
 package com.android.settings.fuelgauge;
 
 import android.app.AppGlobals;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
@@ -32,6 +33,8 @@ import android.os.UserManager;
 import android.util.Log;
 
 import com.android.internal.os.BatterySipper;
+import com.android.settings.BackgroundExecutor;
+import com.android.settings.CacheRegistry;
 import com.android.settings.R;
 import com.android.settings.Utils;
 
@@ -48,16 +51,30 @@ public class BatteryEntry {
 
     static final HashMap<String,UidToDetail> sUidCache = new HashMap<String,UidToDetail>();
 
+    // Names and icons missing from the cache are loaded again, so it can go when memory runs low
+    private static final CacheRegistry.TrimmableCache sUidCacheTrimmer =
+            new CacheRegistry.TrimmableCache() {
+        @Override
+        public void trimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                clearUidCache();
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (sUidCache) {
+                return sUidCache.size();
+            }
+        }
+    };
+
     static final ArrayList<BatteryEntry> mRequestQueue = new ArrayList<BatteryEntry>();
     static Handler sHandler;
 
-    static private class NameAndIconLoader extends Thread {
+    static private class NameAndIconLoader implements Runnable {
         private boolean mAbort = false;
 
-        public NameAndIconLoader() {
-            super("BatteryUsage Icon Loader");
-        }
-
         public void abort() {
             mAbort = true;
         }
@@ -81,19 +98,18 @@ public class BatteryEntry {
         }
     }
 
-    private static NameAndIconLoader mRequestThread;
+    private static NameAndIconLoader mRequestLoader;
 
     public static void startRequestQueue() {
         if (sHandler != null) {
             synchronized (mRequestQueue) {
                 if (!mRequestQueue.isEmpty()) {
-                    if (mRequestThread != null) {
-                        mRequestThread.abort();
+                    if (mRequestLoader != null) {
+                        mRequestLoader.abort();
                     }
-                    mRequestThread = new NameAndIconLoader();
-                    mRequestThread.setPriority(Thread.MIN_PRIORITY);
-                    mRequestThread.start();
-                    mRequestQueue.notify();
+                    mRequestLoader = new NameAndIconLoader();
+                    BackgroundExecutor.getInstance().execute(BackgroundExecutor.PRIORITY_VISIBLE,
+                            mRequestLoader);
                 }
             }
         }
@@ -101,16 +117,18 @@ public class BatteryEntry {
 
     public static void stopRequestQueue() {
         synchronized (mRequestQueue) {
-            if (mRequestThread != null) {
-                mRequestThread.abort();
-                mRequestThread = null;
+            if (mRequestLoader != null) {
+                mRequestLoader.abort();
+                mRequestLoader = null;
                 sHandler = null;
             }
         }
     }
 
     public static void clearUidCache() {
-        sUidCache.clear();
+        synchronized (sUidCache) {
+            sUidCache.clear();
+        }
     }
 
     public final Context context;
@@ -205,8 +223,11 @@ public class BatteryEntry {
     void getQuickNameIconForUid(BatteryStats.Uid uidObj) {
         final int uid = uidObj.getUid();
         final String uidString = Integer.toString(uid);
-        if (sUidCache.containsKey(uidString)) {
-            UidToDetail utd = sUidCache.get(uidString);
+        final UidToDetail utd;
+        synchronized (sUidCache) {
+            utd = sUidCache.get(uidString);
+        }
+        if (utd != null) {
             defaultPackageName = utd.packageName;
             name = utd.name;
             icon = utd.icon;
@@ -320,7 +341,10 @@ public class BatteryEntry {
         utd.name = name;
         utd.icon = icon;
         utd.packageName = defaultPackageName;
-        sUidCache.put(uidString, utd);
+        synchronized (sUidCache) {
+            sUidCache.put(uidString, utd);
+        }
+        CacheRegistry.getInstance(context).register("BatteryEntry.sUidCache", sUidCacheTrimmer);
         if (sHandler != null) {
             sHandler.sendMessage(sHandler.obtainMessage(MSG_UPDATE_NAME_ICON, this));
         }
@@ -44,6 +44,7 @@ import com.android.internal.os.PowerProfile;
 import com.android.settings.HelpUtils;
 import com.android.settings.R;
 import com.android.settings.SettingsActivity;
+import com.android.settings.dashboard.TileSummaryProvider;
 
 import java.util.List;
 
@@ -336,6 +337,24 @@ public class PowerUsageSummary extends PreferenceFragment {
         BatteryEntry.startRequestQueue();
     }
 
+    /**
+     * Show the battery level and status in the dashboard.
+     */
+    public static final TileSummaryProvider SUMMARY_PROVIDER = new TileSummaryProvider() {
+        @Override
+        public CharSequence getSummary(Context context) {
+            final Intent batteryBroadcast = context.registerReceiver(null,
+                    new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (batteryBroadcast == null) {
+                return null;
+            }
+            return context.getString(R.string.dashboard_battery_summary,
+                    com.android.settings.Utils.getBatteryPercentage(batteryBroadcast),
+                    com.android.settings.Utils.getBatteryStatus(context.getResources(),
+                            batteryBroadcast));
+        }
+    };
+
     static final int MSG_REFRESH_STATS = 100;
 
     Handler mHandler = new Handler() {
@@ -17,6 +17,7 @@
 package com.android.settings.net;
 
 import android.app.AppGlobals;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
@@ -35,6 +36,7 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
 
+import com.android.settings.CacheRegistry;
 import com.android.settings.R;
 import com.android.settings.Utils;
 
@@ -47,6 +49,22 @@ public class UidDetailProvider {
     private final Context mContext;
     private final SparseArray<UidDetail> mUidDetailCache;
 
+    private final CacheRegistry.TrimmableCache mCacheTrimmer = new CacheRegistry.TrimmableCache() {
+        @Override
+        public void trimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                clearCache();
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (mUidDetailCache) {
+                return mUidDetailCache.size();
+            }
+        }
+    };
+
     public static final int OTHER_USER_RANGE_START = -2000;
 
     public static int buildKeyForUser(int userHandle) {
@@ -64,6 +82,7 @@ public class UidDetailProvider {
     public UidDetailProvider(Context context) {
         mContext = context.getApplicationContext();
         mUidDetailCache = new SparseArray<UidDetail>();
+        CacheRegistry.getInstance(context).register("UidDetailProvider", mCacheTrimmer);
     }
 
     public void clearCache() {
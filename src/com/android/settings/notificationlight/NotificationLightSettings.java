@@ -138,7 +138,7 @@ public class NotificationLightSettings extends SettingsPreferenceFragment implem
 
         // Get launch-able applications
         mPackageManager = getPackageManager();
-        mPackageAdapter = new PackageListAdapter(getActivity());
+        mPackageAdapter = new PackageListAdapter(getActivity(), getBackgroundScope());
 
         mPackages = new HashMap<String, Package>();
 
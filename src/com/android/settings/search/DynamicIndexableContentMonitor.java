@@ -43,32 +43,34 @@ import com.android.settings.inputmethod.InputMethodAndLanguageSettings;
 import com.android.settings.print.PrintSettingsFragment;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public final class DynamicIndexableContentMonitor extends PackageMonitor implements
         InputManager.InputDeviceListener {
 
-    private static final long DELAY_PROCESS_PACKAGE_CHANGE = 2000;
+    // All the changes happening within this delay are processed in a single re-index
+    private static final long DELAY_PROCESS_CHANGES = 2000;
 
-    private static final int MSG_PACKAGE_AVAILABLE = 1;
-    private static final int MSG_PACKAGE_UNAVAILABLE = 2;
+    private static final int MSG_PROCESS_CHANGES = 1;
 
     private final List<String> mAccessibilityServices = new ArrayList<String>();
     private final List<String> mPrintServices = new ArrayList<String>();
     private final List<String> mImeServices = new ArrayList<String>();
 
+    // Package changes not processed yet, mapped to true if the package became available
+    private final Map<String, Boolean> mPendingPackageChanges =
+            new LinkedHashMap<String, Boolean>();
+    // Classes to re-index, mapped to true if their data must be rebuilt
+    private final Map<String, Boolean> mPendingClassNames = new LinkedHashMap<String, Boolean>();
+
     private final Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case MSG_PACKAGE_AVAILABLE: {
-                    String packageName = (String) msg.obj;
-                    handlePackageAvailable(packageName);
-                } break;
-
-                case MSG_PACKAGE_UNAVAILABLE: {
-                    String packageName = (String) msg.obj;
-                    handlePackageUnavailable(packageName);
+                case MSG_PROCESS_CHANGES: {
+                    processPendingChanges();
                 } break;
             }
         }
@@ -177,6 +179,10 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                     mUserDictionaryContentObserver);
         }
 
+        mHandler.removeMessages(MSG_PROCESS_CHANGES);
+        mPendingPackageChanges.clear();
+        mPendingClassNames.clear();
+
         mAccessibilityServices.clear();
         mPrintServices.clear();
         mImeServices.clear();
@@ -185,13 +191,13 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
     // Covers installed, appeared external storage with the package, upgraded.
     @Override
     public void onPackageAppeared(String packageName, int uid) {
-        postMessage(MSG_PACKAGE_AVAILABLE, packageName);
+        postPackageChange(packageName, true);
     }
 
     // Covers uninstalled, removed external storage with the package.
     @Override
     public void onPackageDisappeared(String packageName, int uid) {
-        postMessage(MSG_PACKAGE_UNAVAILABLE, packageName);
+        postPackageChange(packageName, false);
     }
 
     // Covers enabled, disabled.
@@ -202,16 +208,15 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                 packageName);
         if (state == PackageManager.COMPONENT_ENABLED_STATE_DEFAULT
                 || state ==  PackageManager.COMPONENT_ENABLED_STATE_ENABLED) {
-            postMessage(MSG_PACKAGE_AVAILABLE, packageName);
+            postPackageChange(packageName, true);
         } else {
-            postMessage(MSG_PACKAGE_UNAVAILABLE, packageName);
+            postPackageChange(packageName, false);
         }
     }
 
     @Override
     public void onInputDeviceAdded(int deviceId) {
-        Index.getInstance(mContext).updateFromClassNameResource(
-                InputMethodAndLanguageSettings.class.getName(), false, true);
+        postReindex(InputMethodAndLanguageSettings.class.getName(), false);
     }
 
     @Override
@@ -221,13 +226,45 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
 
     @Override
     public void onInputDeviceChanged(int deviceId) {
-        Index.getInstance(mContext).updateFromClassNameResource(
-                InputMethodAndLanguageSettings.class.getName(), true, true);
+        postReindex(InputMethodAndLanguageSettings.class.getName(), true);
+    }
+
+    private void postPackageChange(String packageName, boolean available) {
+        // Only the last change of a package matters
+        mPendingPackageChanges.remove(packageName);
+        mPendingPackageChanges.put(packageName, available);
+        scheduleProcessing();
+    }
+
+    private void postReindex(String className, boolean rebuild) {
+        final Boolean pendingRebuild = mPendingClassNames.get(className);
+        mPendingClassNames.put(className,
+                rebuild || (pendingRebuild != null && pendingRebuild));
+        scheduleProcessing();
     }
 
-    private void postMessage(int what, String packageName) {
-        Message message = mHandler.obtainMessage(what, packageName);
-        mHandler.sendMessageDelayed(message, DELAY_PROCESS_PACKAGE_CHANGE);
+    private void scheduleProcessing() {
+        if (!mHandler.hasMessages(MSG_PROCESS_CHANGES)) {
+            mHandler.sendEmptyMessageDelayed(MSG_PROCESS_CHANGES, DELAY_PROCESS_CHANGES);
+        }
+    }
+
+    private void processPendingChanges() {
+        for (Map.Entry<String, Boolean> entry : mPendingPackageChanges.entrySet()) {
+            if (entry.getValue()) {
+                handlePackageAvailable(entry.getKey());
+            } else {
+                handlePackageUnavailable(entry.getKey());
+            }
+        }
+        mPendingPackageChanges.clear();
+
+        if (!mPendingClassNames.isEmpty()) {
+            Index.getInstance(mContext).updateFromClassNameResources(mPendingClassNames, true);
+            mPendingClassNames.clear();
+        }
+        // The re-index requested while handling the package changes has just been done
+        mHandler.removeMessages(MSG_PROCESS_CHANGES);
     }
 
     private void handlePackageAvailable(String packageName) {
@@ -235,8 +272,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
             final Intent intent = getAccessibilityServiceIntent(packageName);
             if (!mContext.getPackageManager().queryIntentServices(intent, 0).isEmpty()) {
                 mAccessibilityServices.add(packageName);
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        AccessibilitySettings.class.getName(), false, true);
+                postReindex(AccessibilitySettings.class.getName(), false);
             }
         }
 
@@ -245,8 +281,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                 final Intent intent = getPrintServiceIntent(packageName);
                 if (!mContext.getPackageManager().queryIntentServices(intent, 0).isEmpty()) {
                     mPrintServices.add(packageName);
-                    Index.getInstance(mContext).updateFromClassNameResource(
-                            PrintSettingsFragment.class.getName(), false, true);
+                    postReindex(PrintSettingsFragment.class.getName(), false);
                 }
             }
         }
@@ -256,8 +291,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
                 Intent intent = getIMEServiceIntent(packageName);
                 if (!mContext.getPackageManager().queryIntentServices(intent, 0).isEmpty()) {
                     mImeServices.add(packageName);
-                    Index.getInstance(mContext).updateFromClassNameResource(
-                            InputMethodAndLanguageSettings.class.getName(), false, true);
+                    postReindex(InputMethodAndLanguageSettings.class.getName(), false);
                 }
             }
         }
@@ -267,16 +301,14 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
         final int accessibilityIndex = mAccessibilityServices.indexOf(packageName);
         if (accessibilityIndex >= 0) {
             mAccessibilityServices.remove(accessibilityIndex);
-            Index.getInstance(mContext).updateFromClassNameResource(
-                    AccessibilitySettings.class.getName(), true, true);
+            postReindex(AccessibilitySettings.class.getName(), true);
         }
 
         if (mHasFeaturePrinting) {
             final int printIndex = mPrintServices.indexOf(packageName);
             if (printIndex >= 0) {
                 mPrintServices.remove(printIndex);
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        PrintSettingsFragment.class.getName(), true, true);
+                postReindex(PrintSettingsFragment.class.getName(), true);
             }
         }
 
@@ -284,8 +316,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
             final int imeIndex = mImeServices.indexOf(packageName);
             if (imeIndex >= 0) {
                 mImeServices.remove(imeIndex);
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        InputMethodAndLanguageSettings.class.getName(), true, true);
+                postReindex(InputMethodAndLanguageSettings.class.getName(), true);
             }
         }
     }
@@ -299,8 +330,7 @@ public final class DynamicIndexableContentMonitor extends PackageMonitor impleme
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             if (UserDictionary.Words.CONTENT_URI.equals(uri)) {
-                Index.getInstance(mContext).updateFromClassNameResource(
-                        InputMethodAndLanguageSettings.class.getName(), true, true);
+                postReindex(InputMethodAndLanguageSettings.class.getName(), true);
             }
         };
     }
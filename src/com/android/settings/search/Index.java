@@ -20,18 +20,27 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
 import android.content.pm.ResolveInfo;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
-import android.database.MergeCursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesContract;
@@ -40,23 +49,32 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
 import android.util.Xml;
+import com.android.settings.BackgroundExecutor;
 import com.android.settings.R;
+import com.android.settings.StringNormalizer;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.text.Normalizer;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.regex.Pattern;
 
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_NON_INDEXABLE_KEYS_KEY_VALUE;
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_RAW_RANK;
@@ -84,10 +102,12 @@ import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INT
 
 import static com.android.settings.search.IndexDatabaseHelper.Tables;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.search.IndexDatabaseHelper.FingerprintColumns;
 
 public class Index {
 
     private static final String LOG_TAG = "Index";
+    private static final boolean DEBUG = false;
 
     // Those indices should match the indices of SELECT_COLUMNS !
     public static final int COLUMN_INDEX_RANK = 0;
@@ -132,7 +152,10 @@ public class Index {
             IndexColumns.DATA_KEYWORDS
     };
 
-    private static final String[] MATCH_COLUMNS_SECONDARY = {
+    private static final String[] MATCH_COLUMNS_ALL = {
+            IndexColumns.DATA_TITLE,
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_KEYWORDS,
             IndexColumns.DATA_SUMMARY_ON,
             IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
             IndexColumns.DATA_SUMMARY_OFF,
@@ -140,19 +163,30 @@ public class Index {
             IndexColumns.DATA_ENTRIES
     };
 
+    // Means no LIMIT when querying the Index
+    public static final int NO_LIMIT = -1;
+
     // Max number of saved search queries (who will be used for proposing suggestions)
-    private static long MAX_SAVED_SEARCH_QUERY = 64;
+    private static int MAX_SAVED_SEARCH_QUERY = 64;
     // Max number of proposed suggestions
     private static final int MAX_PROPOSED_SUGGESTIONS = 5;
 
+    private static final String[] SUGGESTIONS_COLUMNS = new String[] {
+            IndexDatabaseHelper.SavedQueriesColums.QUERY
+    };
+
     private static final String BASE_AUTHORITY = "com.android.settings";
 
+    private static final String SHARED_PREFERENCES_NAME = "search_index";
+    private static final String KEY_RECENT_LOCALES = "recent_locales";
+    private static final String RECENT_LOCALES_SEPARATOR = ",";
+    // Max number of locales kept in the Index (the current one included)
+    private static final int MAX_RECENT_LOCALES = 3;
+
     private static final String EMPTY = "";
     private static final String NON_BREAKING_HYPHEN = "\u2011";
     private static final String HYPHEN = "-";
-
-    private static final String FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER =
-            "SEARCH_INDEX_DATA_PROVIDER";
+    private static final char HYPHEN_CHAR = '-';
 
     private static final String NODE_NAME_PREFERENCE_SCREEN = "PreferenceScreen";
     private static final String NODE_NAME_CHECK_BOX_PREFERENCE = "CheckBoxPreference";
@@ -162,8 +196,29 @@ public class Index {
 
     private static Index sInstance;
 
-    private static final Pattern REMOVE_DIACRITICALS_PATTERN
-            = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    // FNV-1a 64 bits constants used for computing the providers fingerprints
+    private static final long FINGERPRINT_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    // Prefix of the fingerprint key for data that does not reference a class name
+    private static final String PROVIDER_KEY_PACKAGE_PREFIX = "package:";
+
+    // Max time given to the remote SearchIndexablesProviders for answering
+    private static final long REMOTE_PROVIDER_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * The data collected from a remote SearchIndexablesProvider, valid as long as its package is
+     * not updated.
+     */
+    private static class RemoteIndexables {
+        public final long lastUpdateTime;
+        public final UpdateData data;
+
+        public RemoteIndexables(long lastUpdateTime, UpdateData data) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.data = data;
+        }
+    }
 
     /**
      * A private class to describe the update data for the Index database
@@ -174,6 +229,7 @@ public class Index {
         public Map<String, List<String>> nonIndexableKeys;
 
         public boolean forceUpdate = false;
+        public boolean fullUpdate = false;
 
         public UpdateData() {
             dataToUpdate = new ArrayList<SearchIndexableData>();
@@ -186,22 +242,185 @@ public class Index {
             dataToDelete = new ArrayList<SearchIndexableData>(other.dataToDelete);
             nonIndexableKeys = new HashMap<String, List<String>>(other.nonIndexableKeys);
             forceUpdate = other.forceUpdate;
+            fullUpdate = other.fullUpdate;
         }
 
         public UpdateData copy() {
             return new UpdateData(this);
         }
 
+        public void addAll(UpdateData other) {
+            dataToUpdate.addAll(other.dataToUpdate);
+            dataToDelete.addAll(other.dataToDelete);
+            nonIndexableKeys.putAll(other.nonIndexableKeys);
+        }
+
         public void clear() {
             dataToUpdate.clear();
             dataToDelete.clear();
             nonIndexableKeys.clear();
             forceUpdate = false;
+            fullUpdate = false;
+        }
+    }
+
+    /**
+     * A private class describing one row of the Index, as produced by the parsing stage
+     */
+    private static class IndexRow {
+        public String locale;
+        public String title;
+        public String normalizedTitle;
+        public String summaryOn;
+        public String normalizedSummaryOn;
+        public String summaryOff;
+        public String normalizedSummaryOff;
+        public String entries;
+        public String className;
+        public String screenTitle;
+        public int iconResId;
+        public int rank;
+        public String keywords;
+        public String intentAction;
+        public String intentTargetPackage;
+        public String intentTargetClass;
+        public boolean enabled;
+        public String key;
+        public int userId;
+        public String providerKey;
+    }
+
+    /**
+     * A private class for writing rows into the Index through a compiled statement. It is meant to
+     * be reused for all the rows of a transaction and closed at the end of it.
+     */
+    private static class IndexRowWriter {
+        // Those indices should match the order of the columns in INSERT_ROW_SQL !
+        private static final int BIND_DOCID = 1;
+        private static final int BIND_LOCALE = 2;
+        private static final int BIND_RANK = 3;
+        private static final int BIND_TITLE = 4;
+        private static final int BIND_TITLE_NORMALIZED = 5;
+        private static final int BIND_SUMMARY_ON = 6;
+        private static final int BIND_SUMMARY_ON_NORMALIZED = 7;
+        private static final int BIND_SUMMARY_OFF = 8;
+        private static final int BIND_SUMMARY_OFF_NORMALIZED = 9;
+        private static final int BIND_ENTRIES = 10;
+        private static final int BIND_KEYWORDS = 11;
+        private static final int BIND_CLASS_NAME = 12;
+        private static final int BIND_SCREEN_TITLE = 13;
+        private static final int BIND_INTENT_ACTION = 14;
+        private static final int BIND_INTENT_TARGET_PACKAGE = 15;
+        private static final int BIND_INTENT_TARGET_CLASS = 16;
+        private static final int BIND_ICON = 17;
+        private static final int BIND_ENABLED = 18;
+        private static final int BIND_KEY_REF = 19;
+        private static final int BIND_USER_ID = 20;
+        private static final int BIND_PROVIDER_KEY = 21;
+
+        private static final String INSERT_ROW_SQL =
+                "INSERT OR REPLACE INTO " + Tables.TABLE_PREFS_INDEX + " (" +
+                        IndexColumns.DOCID + ", " +
+                        IndexColumns.LOCALE + ", " +
+                        IndexColumns.DATA_RANK + ", " +
+                        IndexColumns.DATA_TITLE + ", " +
+                        IndexColumns.DATA_TITLE_NORMALIZED + ", " +
+                        IndexColumns.DATA_SUMMARY_ON + ", " +
+                        IndexColumns.DATA_SUMMARY_ON_NORMALIZED + ", " +
+                        IndexColumns.DATA_SUMMARY_OFF + ", " +
+                        IndexColumns.DATA_SUMMARY_OFF_NORMALIZED + ", " +
+                        IndexColumns.DATA_ENTRIES + ", " +
+                        IndexColumns.DATA_KEYWORDS + ", " +
+                        IndexColumns.CLASS_NAME + ", " +
+                        IndexColumns.SCREEN_TITLE + ", " +
+                        IndexColumns.INTENT_ACTION + ", " +
+                        IndexColumns.INTENT_TARGET_PACKAGE + ", " +
+                        IndexColumns.INTENT_TARGET_CLASS + ", " +
+                        IndexColumns.ICON + ", " +
+                        IndexColumns.ENABLED + ", " +
+                        IndexColumns.DATA_KEY_REF + ", " +
+                        IndexColumns.USER_ID + ", " +
+                        IndexColumns.PROVIDER_KEY +
+                        ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        private final SQLiteStatement mStatement;
+
+        public IndexRowWriter(SQLiteDatabase database) {
+            mStatement = database.compileStatement(INSERT_ROW_SQL);
+        }
+
+        public void write(IndexRow row) {
+            final SQLiteStatement statement = mStatement;
+            statement.clearBindings();
+            statement.bindLong(BIND_DOCID, getDocId(row.locale, row.title, row.screenTitle));
+            bindString(BIND_LOCALE, row.locale);
+            statement.bindLong(BIND_RANK, row.rank);
+            bindString(BIND_TITLE, row.title);
+            bindString(BIND_TITLE_NORMALIZED, row.normalizedTitle);
+            bindString(BIND_SUMMARY_ON, row.summaryOn);
+            bindString(BIND_SUMMARY_ON_NORMALIZED, row.normalizedSummaryOn);
+            bindString(BIND_SUMMARY_OFF, row.summaryOff);
+            bindString(BIND_SUMMARY_OFF_NORMALIZED, row.normalizedSummaryOff);
+            bindString(BIND_ENTRIES, row.entries);
+            bindString(BIND_KEYWORDS, row.keywords);
+            bindString(BIND_CLASS_NAME, row.className);
+            bindString(BIND_SCREEN_TITLE, row.screenTitle);
+            bindString(BIND_INTENT_ACTION, row.intentAction);
+            bindString(BIND_INTENT_TARGET_PACKAGE, row.intentTargetPackage);
+            bindString(BIND_INTENT_TARGET_CLASS, row.intentTargetClass);
+            statement.bindLong(BIND_ICON, row.iconResId);
+            statement.bindLong(BIND_ENABLED, row.enabled ? 1 : 0);
+            bindString(BIND_KEY_REF, row.key);
+            statement.bindLong(BIND_USER_ID, row.userId);
+            bindString(BIND_PROVIDER_KEY, row.providerKey);
+            statement.executeInsert();
+        }
+
+        public void close() {
+            mStatement.close();
+        }
+
+        private void bindString(int index, String value) {
+            if (value != null) {
+                mStatement.bindString(index, value);
+            } else {
+                mStatement.bindNull(index);
+            }
+        }
+
+        /**
+         * The DocID should contains more than the title string itself (you may have two settings
+         * with the same title). So we need to use a combination of the title and the screenTitle.
+         * As several locales are kept in the index, the locale is part of it too, otherwise
+         * indexing a locale would replace the rows of another one.
+         *
+         * The lower 32 bits are the hash code of (title + screenTitle) computed without building
+         * that string, the upper 32 bits are the hash code of the locale.
+         */
+        private static long getDocId(String locale, String title, String screenTitle) {
+            int hash = title.hashCode();
+            final String suffix = String.valueOf(screenTitle);
+            final int length = suffix.length();
+            for (int n = 0; n < length; n++) {
+                hash = 31 * hash + suffix.charAt(n);
+            }
+            return ((long) String.valueOf(locale).hashCode() << 32) | (hash & 0xffffffffL);
         }
     }
 
     private final AtomicBoolean mIsAvailable = new AtomicBoolean(false);
+    // Incremented on the UI thread each time an update of the Index is done
+    private volatile int mGeneration;
+    private final SearchMetrics mMetrics = new SearchMetrics();
+    // Locale of the last complete Index, searched until the current locale is fully indexed
+    private volatile String mSearchLocale;
     private final UpdateData mDataToProcess = new UpdateData();
+    // Data of the remote providers, by authority and locale
+    private final HashMap<String, RemoteIndexables> mRemoteIndexables =
+            new HashMap<String, RemoteIndexables>();
+    private final SavedQueryTrie mSavedQueries = new SavedQueryTrie(MAX_SAVED_SEARCH_QUERY);
+    private final List<String> mPendingSavedQueries = new ArrayList<String>();
+    private boolean mIsSavingQueries;
     private Context mContext;
     private final String mBaseAuthority;
 
@@ -230,107 +449,396 @@ public class Index {
         return mIsAvailable.get();
     }
 
+    /**
+     * Return a number that changes each time the Index is updated: search results obtained with
+     * a different generation may be outdated.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
     public Cursor search(String query) {
-        final SQLiteDatabase database = getReadableDatabase();
-        final Cursor[] cursors = new Cursor[2];
+        return search(query, NO_LIMIT, 0);
+    }
 
-        final String primarySql = buildSearchSQL(query, MATCH_COLUMNS_PRIMARY, true);
-        Log.d(LOG_TAG, "Search primary query: " + primarySql);
-        cursors[0] = database.rawQuery(primarySql, null);
+    /**
+     * Search the Index. Results matching the primary columns (title, keywords) come first, then
+     * the ones only matching the secondary columns (summaries, entries), each ordered by rank.
+     *
+     * @param query the query.
+     * @param limit the max number of results to return or {@link #NO_LIMIT}.
+     * @param offset the number of results to skip.
+     */
+    public Cursor search(String query, int limit, int offset) {
+        return search(query, limit, offset, null);
+    }
 
-        // We need to use an EXCEPT operator as negate MATCH queries do not work.
-        StringBuilder sql = new StringBuilder(
-                buildSearchSQL(query, MATCH_COLUMNS_SECONDARY, false));
-        sql.append(" EXCEPT ");
-        sql.append(primarySql);
+    /**
+     * Same as {@link #search(String, int, int)}, but the query can be interrupted while running.
+     *
+     * @param cancellationSignal a signal to cancel the query, or null if none.
+     * @throws android.os.OperationCanceledException if the query has been canceled.
+     */
+    public Cursor search(String query, int limit, int offset,
+            CancellationSignal cancellationSignal) {
+        final long start = System.nanoTime();
+        final String sql = buildSearchSQL(query, limit, offset);
+        if (DEBUG) {
+            Log.d(LOG_TAG, "Search query: " + sql);
+        }
+        final Cursor cursor = getReadableDatabase().rawQuery(sql, null, cancellationSignal);
+        try {
+            // Run the query right now, so that its latency can be measured
+            cursor.getCount();
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+        mMetrics.recordLatency(SearchMetrics.OP_SEARCH, System.nanoTime() - start);
+        return cursor;
+    }
 
-        final String secondarySql = sql.toString();
-        Log.d(LOG_TAG, "Search secondary query: " + secondarySql);
-        cursors[1] = database.rawQuery(secondarySql, null);
+    /**
+     * Return the saved queries starting with the given query, the most recent ones first.
+     *
+     * The saved queries are read from the database only once, on the first call: this is fast
+     * enough to be called from the UI thread when {@link #areSavedQueriesLoaded()} is true.
+     */
+    public Cursor getSuggestions(String query) {
+        final long start = System.nanoTime();
+        loadSavedQueries();
 
-        return new MergeCursor(cursors);
+        final MatrixCursor cursor = new MatrixCursor(SUGGESTIONS_COLUMNS);
+        final List<String> suggestions =
+                mSavedQueries.getSuggestions(query, MAX_PROPOSED_SUGGESTIONS);
+        final int count = suggestions.size();
+        for (int n = 0; n < count; n++) {
+            cursor.addRow(new Object[] { suggestions.get(n) });
+        }
+        mMetrics.recordLatency(SearchMetrics.OP_SUGGESTIONS, System.nanoTime() - start);
+        return cursor;
     }
 
-    public Cursor getSuggestions(String query) {
-        final String sql = buildSuggestionsSQL(query);
-        Log.d(LOG_TAG, "Suggestions query: " + sql);
-        return getReadableDatabase().rawQuery(sql, null);
+    /**
+     * Print the state of the Index: database size and row counts, latencies of the recent
+     * operations and indexing cost of each provider.
+     */
+    public void dump(PrintWriter pw) {
+        pw.println("Search Index:");
+        pw.println("  available: " + mIsAvailable.get() + ", locale: " + getSearchLocale());
+
+        final File databaseFile = mContext.getDatabasePath(IndexDatabaseHelper.DATABASE_NAME);
+        final File walFile = new File(databaseFile.getPath() + "-wal");
+        pw.println("  database: " + databaseFile.length() + " bytes, wal: " +
+                walFile.length() + " bytes");
+        try {
+            final SQLiteDatabase database = getReadableDatabase();
+            pw.println("  rows: index=" +
+                    DatabaseUtils.queryNumEntries(database, Tables.TABLE_PREFS_INDEX) +
+                    " fingerprints=" +
+                    DatabaseUtils.queryNumEntries(database, Tables.TABLE_FINGERPRINTS) +
+                    " saved_queries=" +
+                    DatabaseUtils.queryNumEntries(database, Tables.TABLE_SAVED_QUERIES));
+
+            final Cursor cursor = database.rawQuery("SELECT " + IndexColumns.LOCALE +
+                    ", COUNT(*) FROM " + Tables.TABLE_PREFS_INDEX +
+                    " GROUP BY " + IndexColumns.LOCALE, null);
+            try {
+                while (cursor.moveToNext()) {
+                    pw.println("  rows for locale '" + cursor.getString(0) + "': " +
+                            cursor.getInt(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            pw.println("  cannot read database: " + e);
+        }
+
+        mMetrics.dump(pw, "  ");
     }
 
-    private String buildSuggestionsSQL(String query) {
-        StringBuilder sb = new StringBuilder();
+    public boolean areSavedQueriesLoaded() {
+        return mSavedQueries.isLoaded();
+    }
 
-        sb.append("SELECT ");
-        sb.append(IndexDatabaseHelper.SavedQueriesColums.QUERY);
-        sb.append(" FROM ");
-        sb.append(Tables.TABLE_SAVED_QUERIES);
+    private void loadSavedQueries() {
+        synchronized (mSavedQueries) {
+            if (mSavedQueries.isLoaded()) {
+                return;
+            }
+            Cursor cursor = null;
+            try {
+                cursor = getReadableDatabase().query(Tables.TABLE_SAVED_QUERIES,
+                        SUGGESTIONS_COLUMNS, null, null, null, null, "rowId ASC");
+                while (cursor.moveToNext()) {
+                    mSavedQueries.add(cursor.getString(0));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            mSavedQueries.setLoaded();
+        }
+    }
 
-        if (TextUtils.isEmpty(query)) {
-            sb.append(" ORDER BY rowId DESC");
-        } else {
-            sb.append(" WHERE ");
-            sb.append(IndexDatabaseHelper.SavedQueriesColums.QUERY);
-            sb.append(" LIKE ");
-            sb.append("'");
-            sb.append(query);
-            sb.append("%");
-            sb.append("'");
+    /**
+     * Save a search query for proposing it later as a suggestion. This returns immediately: the
+     * queries are written to the database in batches from a background thread.
+     */
+    public void addSavedQuery(String query){
+        // Write through, so that the suggestions are up to date right away
+        mSavedQueries.add(query);
+
+        synchronized (mPendingSavedQueries) {
+            mPendingSavedQueries.add(query);
+            if (mIsSavingQueries) {
+                // The running task will pick it up
+                return;
+            }
+            mIsSavingQueries = true;
         }
+        new SaveSearchQueryTask().execute();
+    }
 
-        sb.append(" LIMIT ");
-        sb.append(MAX_PROPOSED_SUGGESTIONS);
+    public void update() {
+        // The remote providers are queried by the update task
+        mDataToProcess.fullUpdate = true;
+        updateInternal();
+    }
 
-        return sb.toString();
+    /**
+     * Index the locales recently used besides the current one, so that switching back to one of
+     * them finds it already indexed, and forget about the locales not used anymore.
+     *
+     * This runs synchronously: it must not be called from the UI thread.
+     */
+    public void updateSecondaryLocales() {
+        final List<String> recentLocales = getRecentLocales();
+        final String currentLocale = Locale.getDefault().toString();
+        if (!recentLocales.contains(currentLocale)) {
+            recentLocales.add(currentLocale);
+        }
+        evictLocales(recentLocales);
+
+        final int count = recentLocales.size();
+        for (int n = 0; n < count; n++) {
+            final String localeStr = recentLocales.get(n);
+            if (localeStr.equals(currentLocale)) {
+                continue;
+            }
+            final long current = System.currentTimeMillis();
+
+            final UpdateData updateData = new UpdateData();
+            updateData.fullUpdate =
+                    collectRemoteIndexables(createLocaleContext(localeStr), updateData,
+                            BackgroundExecutor.PRIORITY_MAINTENANCE);
+            new UpdateIndexTask().processUpdateData(updateData, localeStr,
+                    BackgroundExecutor.PRIORITY_MAINTENANCE);
+
+            Log.d(LOG_TAG, "Pre-indexing locale '" + localeStr + "' took " +
+                    (System.currentTimeMillis() - current) + " millis");
+        }
+    }
+
+    private Context createLocaleContext(String localeStr) {
+        final String[] parts = localeStr.split("_", 3);
+        final Locale locale = new Locale(parts[0],
+                (parts.length > 1) ? parts[1] : EMPTY, (parts.length > 2) ? parts[2] : EMPTY);
+
+        final Configuration configuration =
+                new Configuration(mContext.getResources().getConfiguration());
+        configuration.setLocale(locale);
+        return mContext.createConfigurationContext(configuration);
+    }
+
+    private SharedPreferences getIndexPreferences() {
+        return mContext.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
     }
 
-    public long addSavedQuery(String query){
-        final SaveSearchQueryTask task = new SaveSearchQueryTask();
-        task.execute(query);
+    /**
+     * Return the locales recently indexed as the default one, the most recent first.
+     */
+    private List<String> getRecentLocales() {
+        final String value = getIndexPreferences().getString(KEY_RECENT_LOCALES, EMPTY);
+        final List<String> result = new ArrayList<String>();
+        for (String localeStr : TextUtils.split(value, RECENT_LOCALES_SEPARATOR)) {
+            if (!TextUtils.isEmpty(localeStr)) {
+                result.add(localeStr);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remember a locale that has been indexed as the default one.
+     *
+     * @return the number of locales recently used.
+     */
+    private int addRecentLocale(String localeStr) {
+        final List<String> recentLocales = getRecentLocales();
+        if (!recentLocales.isEmpty() && recentLocales.get(0).equals(localeStr)) {
+            return recentLocales.size();
+        }
+        recentLocales.remove(localeStr);
+        recentLocales.add(0, localeStr);
+        while (recentLocales.size() > MAX_RECENT_LOCALES) {
+            recentLocales.remove(recentLocales.size() - 1);
+        }
+        getIndexPreferences().edit().putString(KEY_RECENT_LOCALES,
+                TextUtils.join(RECENT_LOCALES_SEPARATOR, recentLocales)).apply();
+        return recentLocales.size();
+    }
+
+    private void evictLocales(List<String> localesToKeep) {
+        final StringBuilder sb = new StringBuilder();
+        final int count = localesToKeep.size();
+        for (int n = 0; n < count; n++) {
+            if (n > 0) {
+                sb.append(", ");
+            }
+            DatabaseUtils.appendEscapedSQLString(sb, localesToKeep.get(n));
+        }
+        final String locales = sb.toString();
+
+        final SQLiteDatabase database = getWritableDatabase();
         try {
-            return task.get();
-        } catch (InterruptedException e) {
-            Log.e(LOG_TAG, "Cannot insert saved query: " + query, e);
-            return -1 ;
-        } catch (ExecutionException e) {
-            Log.e(LOG_TAG, "Cannot insert saved query: " + query, e);
-            return -1;
+            database.beginTransaction();
+            final int deleted = database.delete(Tables.TABLE_PREFS_INDEX,
+                    IndexColumns.LOCALE + " NOT IN (" + locales + ")", null);
+            database.delete(Tables.TABLE_FINGERPRINTS,
+                    FingerprintColumns.LOCALE + " NOT IN (" + locales + ")", null);
+            database.setTransactionSuccessful();
+            if (deleted > 0) {
+                Log.d(LOG_TAG, "Evicted " + deleted + " rows of locales not used anymore");
+            }
+        } finally {
+            database.endTransaction();
         }
     }
 
-    public void update() {
+    /**
+     * Collect the data of all the well known SearchIndexablesProviders.
+     *
+     * The providers are queried concurrently on the {@link BackgroundExecutor} and share the
+     * same deadline: a provider not answering in time is left out. The data of a provider is
+     * cached until its package is updated.
+     *
+     * This runs synchronously: it must not be called from the UI thread, nor from the
+     * {@link BackgroundExecutor} as it waits for tasks of its own.
+     *
+     * @param baseContext the context the data will be loaded with, which tells the locale.
+     * @param updateData where to collect the data.
+     * @param priority the {@link BackgroundExecutor} priority the providers are queried with.
+     * @return true if all the providers answered in time.
+     */
+    private boolean collectRemoteIndexables(final Context baseContext, UpdateData updateData,
+            int priority) {
         final Intent intent = new Intent(SearchIndexablesContract.PROVIDER_INTERFACE);
         List<ResolveInfo> list =
                 mContext.getPackageManager().queryIntentContentProviders(intent, 0);
 
+        final List<ProviderInfo> providers = new ArrayList<ProviderInfo>();
         final int size = list.size();
         for (int n = 0; n < size; n++) {
             final ResolveInfo info = list.get(n);
-            if (!isWellKnownProvider(info)) {
-                continue;
+            if (isWellKnownProvider(info)) {
+                providers.add(info.providerInfo);
             }
-            final String authority = info.providerInfo.authority;
-            final String packageName = info.providerInfo.packageName;
+        }
+        final int count = providers.size();
+        if (count == 0) {
+            return true;
+        }
 
-            addIndexablesFromRemoteProvider(packageName, authority);
-            addNonIndexablesKeysFromRemoteProvider(packageName, authority);
+        final BackgroundExecutor.Scope scope = BackgroundExecutor.getInstance().newScope();
+        final List<Future<UpdateData>> results = new ArrayList<Future<UpdateData>>(count);
+        for (int n = 0; n < count; n++) {
+            final ProviderInfo provider = providers.get(n);
+            results.add(scope.submit(priority, new Callable<UpdateData>() {
+                @Override
+                public UpdateData call() {
+                    return getRemoteIndexables(baseContext, provider.packageName,
+                            provider.authority);
+                }
+            }));
         }
 
-        updateInternal();
+        boolean complete = true;
+        final long deadline = SystemClock.uptimeMillis() + REMOTE_PROVIDER_TIMEOUT_MILLIS;
+        for (int n = 0; n < count; n++) {
+            final String authority = providers.get(n).authority;
+            final Future<UpdateData> result = results.get(n);
+            try {
+                final long timeout = Math.max(0, deadline - SystemClock.uptimeMillis());
+                updateData.addAll(result.get(timeout, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                Log.w(LOG_TAG, "Timeout while querying provider: " + authority);
+                result.cancel(true);
+                complete = false;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Cannot query provider: " + authority, e);
+                complete = false;
+            } catch (InterruptedException e) {
+                Log.w(LOG_TAG, "Interrupted while querying provider: " + authority);
+                Thread.currentThread().interrupt();
+                scope.cancel();
+                return false;
+            }
+        }
+        return complete;
+    }
+
+    private UpdateData getRemoteIndexables(Context baseContext, String packageName,
+            String authority) {
+        // Our own provider is local and cheap to query, and its data references baseContext
+        final boolean cacheable = !mBaseAuthority.equals(authority);
+        final String cacheKey = authority + "/" +
+                baseContext.getResources().getConfiguration().locale.toString();
+        long lastUpdateTime = 0;
+        if (cacheable) {
+            try {
+                lastUpdateTime = mContext.getPackageManager().getPackageInfo(packageName, 0)
+                        .lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                // Handled when creating the package context
+            }
+            synchronized (mRemoteIndexables) {
+                final RemoteIndexables cached = mRemoteIndexables.get(cacheKey);
+                if (cached != null && cached.lastUpdateTime == lastUpdateTime) {
+                    return cached.data;
+                }
+            }
+        }
+
+        final UpdateData data = new UpdateData();
+        final boolean added =
+                addIndexablesFromRemoteProvider(baseContext, data, packageName, authority);
+        addNonIndexablesKeysFromRemoteProvider(baseContext, data, packageName, authority);
+
+        if (cacheable && added) {
+            synchronized (mRemoteIndexables) {
+                mRemoteIndexables.put(cacheKey, new RemoteIndexables(lastUpdateTime, data));
+            }
+        }
+        return data;
     }
 
-    private boolean addIndexablesFromRemoteProvider(String packageName, String authority) {
+    private boolean addIndexablesFromRemoteProvider(Context baseContext, UpdateData updateData,
+            String packageName, String authority) {
         try {
             final int baseRank = Ranking.getBaseRankForAuthority(authority);
 
             final Context context = mBaseAuthority.equals(authority) ?
-                    mContext : mContext.createPackageContext(packageName, 0);
+                    baseContext : baseContext.createPackageContext(packageName, 0);
 
             final Uri uriForResources = buildUriForXmlResources(authority);
-            addIndexablesForXmlResourceUri(context, packageName, uriForResources,
+            addIndexablesForXmlResourceUri(updateData, context, packageName, uriForResources,
                     SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS, baseRank);
 
             final Uri uriForRawData = buildUriForRawData(authority);
-            addIndexablesForRawDataUri(context, packageName, uriForRawData,
+            addIndexablesForRawDataUri(updateData, context, packageName, uriForRawData,
                     SearchIndexablesContract.INDEXABLES_RAW_COLUMNS, baseRank);
             return true;
         } catch (PackageManager.NameNotFoundException e) {
@@ -340,17 +848,19 @@ public class Index {
         }
     }
 
-    private void addNonIndexablesKeysFromRemoteProvider(String packageName,
-                                                        String authority) {
+    private void addNonIndexablesKeysFromRemoteProvider(Context baseContext,
+            UpdateData updateData, String packageName, String authority) {
         final List<String> keys =
-                getNonIndexablesKeysFromRemoteProvider(packageName, authority);
-        addNonIndexableKeys(packageName, keys);
+                getNonIndexablesKeysFromRemoteProvider(baseContext, packageName, authority);
+        synchronized (updateData) {
+            updateData.nonIndexableKeys.put(packageName, keys);
+        }
     }
 
-    private List<String> getNonIndexablesKeysFromRemoteProvider(String packageName,
-                                                                String authority) {
+    private List<String> getNonIndexablesKeysFromRemoteProvider(Context baseContext,
+            String packageName, String authority) {
         try {
-            final Context packageContext = mContext.createPackageContext(packageName, 0);
+            final Context packageContext = baseContext.createPackageContext(packageName, 0);
 
             final Uri uriForNonIndexableKeys = buildUriForNonIndexableKeys(authority);
             return getNonIndexablesKeys(packageContext, uriForNonIndexableKeys,
@@ -389,8 +899,12 @@ public class Index {
     }
 
     public void addIndexableData(SearchIndexableData data) {
-        synchronized (mDataToProcess) {
-            mDataToProcess.dataToUpdate.add(data);
+        addIndexableData(mDataToProcess, data);
+    }
+
+    private static void addIndexableData(UpdateData updateData, SearchIndexableData data) {
+        synchronized (updateData) {
+            updateData.dataToUpdate.add(data);
         }
     }
 
@@ -455,7 +969,7 @@ public class Index {
     }
 
     private void updateFromRemoteProvider(String packageName, String authority) {
-        if (addIndexablesFromRemoteProvider(packageName, authority)) {
+        if (addIndexablesFromRemoteProvider(mContext, mDataToProcess, packageName, authority)) {
             updateInternal();
         }
     }
@@ -473,10 +987,48 @@ public class Index {
         if (className == null) {
             throw new IllegalArgumentException("class name cannot be null!");
         }
+        final SearchIndexableResource res =
+                addClassNameResource(className, rebuild, includeInSearchResults);
+        if (res == null) {
+            return;
+        }
+        mDataToProcess.forceUpdate = true;
+        updateInternal();
+        res.enabled = false;
+    }
+
+    /**
+     * Update the resources of several classes in a single pass.
+     *
+     * @param classNames the class names, each one mapped to whether its data must be rebuilt.
+     * @param includeInSearchResults true if the data must be included in the search results.
+     */
+    public void updateFromClassNameResources(Map<String, Boolean> classNames,
+            boolean includeInSearchResults) {
+        final List<SearchIndexableResource> resources = new ArrayList<SearchIndexableResource>();
+        for (Map.Entry<String, Boolean> entry : classNames.entrySet()) {
+            final SearchIndexableResource res = addClassNameResource(entry.getKey(),
+                    entry.getValue(), includeInSearchResults);
+            if (res != null) {
+                resources.add(res);
+            }
+        }
+        if (resources.isEmpty()) {
+            return;
+        }
+        mDataToProcess.forceUpdate = true;
+        updateInternal();
+        for (SearchIndexableResource res : resources) {
+            res.enabled = false;
+        }
+    }
+
+    private SearchIndexableResource addClassNameResource(String className, boolean rebuild,
+            boolean includeInSearchResults) {
         final SearchIndexableResource res = SearchIndexableResources.getResourceByName(className);
         if (res == null ) {
             Log.e(LOG_TAG, "Cannot find SearchIndexableResources for class name: " + className);
-            return;
+            return null;
         }
         res.context = mContext;
         res.enabled = includeInSearchResults;
@@ -484,9 +1036,7 @@ public class Index {
             deleteIndexableData(res);
         }
         addIndexableData(res);
-        mDataToProcess.forceUpdate = true;
-        updateInternal();
-        res.enabled = false;
+        return res;
     }
 
     public void updateFromSearchIndexableData(SearchIndexableData data) {
@@ -518,6 +1068,11 @@ public class Index {
                 SearchIndexablesContract.NON_INDEXABLES_KEYS_PATH);
     }
 
+    private String getSearchLocale() {
+        final String locale = mSearchLocale;
+        return (locale != null) ? locale : Locale.getDefault().toString();
+    }
+
     private void updateInternal() {
         synchronized (mDataToProcess) {
             final UpdateIndexTask task = new UpdateIndexTask();
@@ -527,8 +1082,8 @@ public class Index {
         }
     }
 
-    private void addIndexablesForXmlResourceUri(Context packageContext, String packageName,
-            Uri uri, String[] projection, int baseRank) {
+    private void addIndexablesForXmlResourceUri(UpdateData updateData, Context packageContext,
+            String packageName, Uri uri, String[] projection, int baseRank) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
         final Cursor cursor = resolver.query(uri, projection, null, null, null);
@@ -566,7 +1121,7 @@ public class Index {
                     sir.intentTargetPackage = targetPackage;
                     sir.intentTargetClass = targetClass;
 
-                    addIndexableData(sir);
+                    addIndexableData(updateData, sir);
                 }
             }
         } finally {
@@ -574,8 +1129,8 @@ public class Index {
         }
     }
 
-    private void addIndexablesForRawDataUri(Context packageContext, String packageName,
-            Uri uri, String[] projection, int baseRank) {
+    private void addIndexablesForRawDataUri(UpdateData updateData, Context packageContext,
+            String packageName, Uri uri, String[] projection, int baseRank) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
         final Cursor cursor = resolver.query(uri, projection, null, null, null);
@@ -629,7 +1184,7 @@ public class Index {
                     data.key = key;
                     data.userId = userId;
 
-                    addIndexableData(data);
+                    addIndexableData(updateData, data);
                 }
             }
         } finally {
@@ -637,17 +1192,7 @@ public class Index {
         }
     }
 
-    private String buildSearchSQL(String query, String[] colums, boolean withOrderBy) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(buildSearchSQLForColumn(query, colums));
-        if (withOrderBy) {
-            sb.append(" ORDER BY ");
-            sb.append(IndexColumns.DATA_RANK);
-        }
-        return sb.toString();
-    }
-
-    private String buildSearchSQLForColumn(String query, String[] columnNames) {
+    private String buildSearchSQL(String query, int limit, int offset) {
         StringBuilder sb = new StringBuilder();
         sb.append("SELECT ");
         for (int n = 0; n < SELECT_COLUMNS.length; n++) {
@@ -659,8 +1204,32 @@ public class Index {
         sb.append(" FROM ");
         sb.append(Tables.TABLE_PREFS_INDEX);
         sb.append(" WHERE ");
-        sb.append(buildSearchWhereStringForColumns(query, columnNames));
-
+        sb.append(buildSearchWhereStringForColumns(query, MATCH_COLUMNS_ALL));
+
+        // FTS cannot tell which column matched, so rank the primary hits first by checking
+        // their docid against the primary MATCH (evaluated once, this is not correlated).
+        // With a LIMIT, SQLite only keeps the first OFFSET + LIMIT rows while sorting: a page
+        // reads all the matches, but does not sort all of them.
+        sb.append(" ORDER BY ");
+        sb.append(IndexColumns.DOCID);
+        sb.append(" IN (SELECT ");
+        sb.append(IndexColumns.DOCID);
+        sb.append(" FROM ");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(" WHERE ");
+        sb.append(Tables.TABLE_PREFS_INDEX);
+        sb.append(" MATCH ");
+        DatabaseUtils.appendEscapedSQLString(sb,
+                buildSearchMatchStringForColumns(query, MATCH_COLUMNS_PRIMARY));
+        sb.append(") DESC, ");
+        sb.append(IndexColumns.DATA_RANK);
+
+        if (limit != NO_LIMIT) {
+            sb.append(" LIMIT ");
+            sb.append(limit);
+            sb.append(" OFFSET ");
+            sb.append(offset);
+        }
         return sb.toString();
     }
 
@@ -672,7 +1241,7 @@ public class Index {
         sb.append(" AND ");
         sb.append(IndexColumns.LOCALE);
         sb.append(" = ");
-        DatabaseUtils.appendEscapedSQLString(sb, Locale.getDefault().toString());
+        DatabaseUtils.appendEscapedSQLString(sb, getSearchLocale());
         sb.append(" AND ");
         sb.append(IndexColumns.ENABLED);
         sb.append(" = 1");
@@ -694,23 +1263,23 @@ public class Index {
         return sb.toString();
     }
 
-    private void indexOneSearchIndexableData(SQLiteDatabase database, String localeStr,
+    private void indexOneSearchIndexableData(List<IndexRow> rows, String localeStr,
             SearchIndexableData data, Map<String, List<String>> nonIndexableKeys) {
         if (data instanceof SearchIndexableResource) {
-            indexOneResource(database, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
+            indexOneResource(rows, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
         } else if (data instanceof SearchIndexableRaw) {
-            indexOneRaw(database, localeStr, (SearchIndexableRaw) data);
+            indexOneRaw(rows, localeStr, (SearchIndexableRaw) data);
         }
     }
 
-    private void indexOneRaw(SQLiteDatabase database, String localeStr,
+    private void indexOneRaw(List<IndexRow> rows, String localeStr,
                              SearchIndexableRaw raw) {
         // Should be the same locale as the one we are processing
-        if (!raw.locale.toString().equalsIgnoreCase(localeStr)) {
+        if (!isDataForLocale(raw, localeStr)) {
             return;
         }
 
-        updateOneRowWithFilteredData(database, localeStr,
+        updateOneRowWithFilteredData(rows, localeStr,
                 raw.title,
                 raw.summaryOn,
                 raw.summaryOff,
@@ -728,22 +1297,21 @@ public class Index {
                 raw.userId);
     }
 
-    private static boolean isIndexableClass(final Class<?> clazz) {
-        return (clazz != null) && Indexable.class.isAssignableFrom(clazz);
-    }
-
-    private static Class<?> getIndexableClass(String className) {
-        final Class<?> clazz;
-        try {
-            clazz = Class.forName(className);
-        } catch (ClassNotFoundException e) {
-            Log.d(LOG_TAG, "Cannot find class: " + className);
-            return null;
+    /**
+     * SearchIndexableData is always stamped with the default locale, even when it has been built
+     * with a context for another locale (when pre-indexing a secondary locale).
+     */
+    private static boolean isDataForLocale(SearchIndexableData data, String localeStr) {
+        final String dataLocale = data.locale.toString();
+        if (dataLocale.equalsIgnoreCase(localeStr)) {
+            return true;
         }
-        return isIndexableClass(clazz) ? clazz : null;
+        return data.context != null && dataLocale.equals(Locale.getDefault().toString())
+                && localeStr.equalsIgnoreCase(
+                        data.context.getResources().getConfiguration().locale.toString());
     }
 
-    private void indexOneResource(SQLiteDatabase database, String localeStr,
+    private void indexOneResource(List<IndexRow> rows, String localeStr,
             SearchIndexableResource sir, Map<String, List<String>> nonIndexableKeysFromResource) {
 
         if (sir == null) {
@@ -759,7 +1327,7 @@ public class Index {
                 nonIndexableKeys.addAll(resNonIndxableKeys);
             }
 
-            indexFromResource(sir.context, database, localeStr,
+            indexFromResource(sir.context, rows, localeStr,
                     sir.xmlResId, sir.className, sir.iconResId, sir.rank,
                     sir.intentAction, sir.intentTargetPackage, sir.intentTargetClass,
                     nonIndexableKeys);
@@ -769,49 +1337,27 @@ public class Index {
                 return;
             }
 
-            final Class<?> clazz = getIndexableClass(sir.className);
-            if (clazz == null) {
-                Log.d(LOG_TAG, "SearchIndexableResource '" + sir.className +
-                        "' should implement the " + Indexable.class.getName() + " interface!");
-                return;
-            }
-
             // Will be non null only for a Local provider implementing a
             // SEARCH_INDEX_DATA_PROVIDER field
-            final Indexable.SearchIndexProvider provider = getSearchIndexProvider(clazz);
-            if (provider != null) {
+            final Indexable.SearchIndexProvider provider =
+                    SearchIndexProviderRegistry.getProvider(sir.className);
+            if (provider == null) {
+                Log.d(LOG_TAG, "SearchIndexableResource '" + sir.className +
+                        "' is not registered in " + SearchIndexProviderRegistry.class.getName());
+            } else {
                 List<String> providerNonIndexableKeys = provider.getNonIndexableKeys(sir.context);
                 if (providerNonIndexableKeys != null && providerNonIndexableKeys.size() > 0) {
                     nonIndexableKeys.addAll(providerNonIndexableKeys);
                 }
 
-                indexFromProvider(mContext, database, localeStr, provider, sir.className,
+                final Context context = (sir.context != null) ? sir.context : mContext;
+                indexFromProvider(context, rows, localeStr, provider, sir.className,
                         sir.iconResId, sir.rank, sir.enabled, nonIndexableKeys);
             }
         }
     }
 
-    private Indexable.SearchIndexProvider getSearchIndexProvider(final Class<?> clazz) {
-        try {
-            final Field f = clazz.getField(FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER);
-            return (Indexable.SearchIndexProvider) f.get(null);
-        } catch (NoSuchFieldException e) {
-            Log.d(LOG_TAG, "Cannot find field '" + FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER + "'");
-        } catch (SecurityException se) {
-            Log.d(LOG_TAG,
-                    "Security exception for field '" + FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER + "'");
-        } catch (IllegalAccessException e) {
-            Log.d(LOG_TAG,
-                    "Illegal access to field '" + FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER + "'");
-        } catch (IllegalArgumentException e) {
-            Log.d(LOG_TAG,
-                    "Illegal argument when accessing field '" +
-                            FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER + "'");
-        }
-        return null;
-    }
-
-    private void indexFromResource(Context context, SQLiteDatabase database, String localeStr,
+    private void indexFromResource(Context context, List<IndexRow> rows, String localeStr,
            int xmlResId, String fragmentName, int iconResId, int rank,
            String intentAction, String intentTargetPackage, String intentTargetClass,
            List<String> nonIndexableKeys) {
@@ -851,7 +1397,7 @@ public class Index {
                 summary = getDataSummary(context, attrs);
                 keywords = getDataKeywords(context, attrs);
 
-                updateOneRowWithFilteredData(database, localeStr, title, summary, null, null,
+                updateOneRowWithFilteredData(rows, localeStr, title, summary, null, null,
                         fragmentName, screenTitle, iconResId, rank,
                         keywords, intentAction, intentTargetPackage, intentTargetClass, true,
                         key, -1 /* default user id */);
@@ -883,7 +1429,7 @@ public class Index {
                     }
 
                     // Insert rows for the child nodes of PreferenceScreen
-                    updateOneRowWithFilteredData(database, localeStr, title, summary, null, entries,
+                    updateOneRowWithFilteredData(rows, localeStr, title, summary, null, entries,
                             fragmentName, screenTitle, iconResId, rank,
                             keywords, intentAction, intentTargetPackage, intentTargetClass,
                             true, key, -1 /* default user id */);
@@ -895,7 +1441,7 @@ public class Index {
                         summaryOn = getDataSummary(context, attrs);
                     }
 
-                    updateOneRowWithFilteredData(database, localeStr, title, summaryOn, summaryOff,
+                    updateOneRowWithFilteredData(rows, localeStr, title, summaryOn, summaryOff,
                             null, fragmentName, screenTitle, iconResId, rank,
                             keywords, intentAction, intentTargetPackage, intentTargetClass,
                             true, key, -1 /* default user id */);
@@ -911,7 +1457,7 @@ public class Index {
         }
     }
 
-    private void indexFromProvider(Context context, SQLiteDatabase database, String localeStr,
+    private void indexFromProvider(Context context, List<IndexRow> rows, String localeStr,
             Indexable.SearchIndexProvider provider, String className, int iconResId, int rank,
             boolean enabled, List<String> nonIndexableKeys) {
 
@@ -928,7 +1474,7 @@ public class Index {
                 SearchIndexableRaw raw = rawList.get(i);
 
                 // Should be the same locale as the one we are processing
-                if (!raw.locale.toString().equalsIgnoreCase(localeStr)) {
+                if (!isDataForLocale(raw, localeStr)) {
                     continue;
                 }
 
@@ -936,7 +1482,7 @@ public class Index {
                     continue;
                 }
 
-                updateOneRowWithFilteredData(database, localeStr,
+                updateOneRowWithFilteredData(rows, localeStr,
                         raw.title,
                         raw.summaryOn,
                         raw.summaryOff,
@@ -963,7 +1509,7 @@ public class Index {
                 SearchIndexableResource item = resList.get(i);
 
                 // Should be the same locale as the one we are processing
-                if (!item.locale.toString().equalsIgnoreCase(localeStr)) {
+                if (!isDataForLocale(item, localeStr)) {
                     continue;
                 }
 
@@ -972,7 +1518,7 @@ public class Index {
                 String itemClassName = (TextUtils.isEmpty(item.className))
                         ? className : item.className;
 
-                indexFromResource(context, database, localeStr,
+                indexFromResource(context, rows, localeStr,
                         item.xmlResId, itemClassName, itemIconResId, itemRank,
                         item.intentAction, item.intentTargetPackage,
                         item.intentTargetClass, nonIndexableKeys);
@@ -980,7 +1526,7 @@ public class Index {
         }
     }
 
-    private void updateOneRowWithFilteredData(SQLiteDatabase database, String locale,
+    private void updateOneRowWithFilteredData(List<IndexRow> rows, String locale,
             String title, String summaryOn, String summaryOff, String entries,
             String className,
             String screenTitle, int iconResId, int rank, String keywords,
@@ -988,6 +1534,10 @@ public class Index {
             boolean enabled, String key, int userId) {
 
         final String updatedTitle = normalizeHyphen(title);
+        if (TextUtils.isEmpty(updatedTitle)) {
+            return;
+        }
+
         final String updatedSummaryOn = normalizeHyphen(summaryOn);
         final String updatedSummaryOff = normalizeHyphen(summaryOff);
 
@@ -995,66 +1545,35 @@ public class Index {
         final String normalizedSummaryOn = normalizeString(updatedSummaryOn);
         final String normalizedSummaryOff = normalizeString(updatedSummaryOff);
 
-        updateOneRow(database, locale,
-                updatedTitle, normalizedTitle, updatedSummaryOn, normalizedSummaryOn,
-                updatedSummaryOff, normalizedSummaryOff, entries,
-                className, screenTitle, iconResId,
-                rank, keywords, intentAction, intentTargetPackage, intentTargetClass, enabled,
-                key, userId);
+        final IndexRow row = new IndexRow();
+        row.locale = locale;
+        row.title = updatedTitle;
+        row.normalizedTitle = normalizedTitle;
+        row.summaryOn = updatedSummaryOn;
+        row.normalizedSummaryOn = normalizedSummaryOn;
+        row.summaryOff = updatedSummaryOff;
+        row.normalizedSummaryOff = normalizedSummaryOff;
+        row.entries = entries;
+        row.className = className;
+        row.screenTitle = screenTitle;
+        row.iconResId = iconResId;
+        row.rank = rank;
+        row.keywords = keywords;
+        row.intentAction = intentAction;
+        row.intentTargetPackage = intentTargetPackage;
+        row.intentTargetClass = intentTargetClass;
+        row.enabled = enabled;
+        row.key = key;
+        row.userId = userId;
+        rows.add(row);
     }
 
     private static String normalizeHyphen(String input) {
-        return (input != null) ? input.replaceAll(NON_BREAKING_HYPHEN, HYPHEN) : EMPTY;
+        return (input != null) ? input.replace(NON_BREAKING_HYPHEN, HYPHEN) : EMPTY;
     }
 
     private static String normalizeString(String input) {
-        final String nohyphen = (input != null) ? input.replaceAll(HYPHEN, EMPTY) : EMPTY;
-        final String normalized = Normalizer.normalize(nohyphen, Normalizer.Form.NFD);
-
-        return REMOVE_DIACRITICALS_PATTERN.matcher(normalized).replaceAll("").toLowerCase();
-    }
-
-    private void updateOneRow(SQLiteDatabase database, String locale,
-            String updatedTitle, String normalizedTitle,
-            String updatedSummaryOn, String normalizedSummaryOn,
-            String updatedSummaryOff, String normalizedSummaryOff, String entries,
-            String className, String screenTitle, int iconResId, int rank, String keywords,
-            String intentAction, String intentTargetPackage, String intentTargetClass,
-            boolean enabled, String key, int userId) {
-
-        if (TextUtils.isEmpty(updatedTitle)) {
-            return;
-        }
-
-        // The DocID should contains more than the title string itself (you may have two settings
-        // with the same title). So we need to use a combination of the title and the screenTitle.
-        StringBuilder sb = new StringBuilder(updatedTitle);
-        sb.append(screenTitle);
-        int docId = sb.toString().hashCode();
-
-        ContentValues values = new ContentValues();
-        values.put(IndexColumns.DOCID, docId);
-        values.put(IndexColumns.LOCALE, locale);
-        values.put(IndexColumns.DATA_RANK, rank);
-        values.put(IndexColumns.DATA_TITLE, updatedTitle);
-        values.put(IndexColumns.DATA_TITLE_NORMALIZED, normalizedTitle);
-        values.put(IndexColumns.DATA_SUMMARY_ON, updatedSummaryOn);
-        values.put(IndexColumns.DATA_SUMMARY_ON_NORMALIZED, normalizedSummaryOn);
-        values.put(IndexColumns.DATA_SUMMARY_OFF, updatedSummaryOff);
-        values.put(IndexColumns.DATA_SUMMARY_OFF_NORMALIZED, normalizedSummaryOff);
-        values.put(IndexColumns.DATA_ENTRIES, entries);
-        values.put(IndexColumns.DATA_KEYWORDS, keywords);
-        values.put(IndexColumns.CLASS_NAME, className);
-        values.put(IndexColumns.SCREEN_TITLE, screenTitle);
-        values.put(IndexColumns.INTENT_ACTION, intentAction);
-        values.put(IndexColumns.INTENT_TARGET_PACKAGE, intentTargetPackage);
-        values.put(IndexColumns.INTENT_TARGET_CLASS, intentTargetClass);
-        values.put(IndexColumns.ICON, iconResId);
-        values.put(IndexColumns.ENABLED, enabled);
-        values.put(IndexColumns.DATA_KEY_REF, key);
-        values.put(IndexColumns.USER_ID, userId);
-
-        database.replaceOrThrow(Tables.TABLE_PREFS_INDEX, null, values);
+        return (input != null) ? StringNormalizer.normalize(input, HYPHEN_CHAR) : EMPTY;
     }
 
     private String getDataKey(Context context, AttributeSet attrs) {
@@ -1150,79 +1669,414 @@ public class Index {
      */
     private class UpdateIndexTask extends AsyncTask<UpdateData, Integer, Void> {
 
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
-            mIsAvailable.set(false);
-        }
+        // Locale fully indexed by this task, if any
+        private String mIndexedLocale;
 
         @Override
         protected void onPostExecute(Void aVoid) {
             super.onPostExecute(aVoid);
+            // The Index is only written in transactions and the database uses write-ahead
+            // logging: searches keep seeing the previous Index until a new one is committed, so
+            // there is no need to turn search off while indexing.
+            if (mIndexedLocale != null) {
+                mSearchLocale = mIndexedLocale;
+            }
+            mGeneration++;
             mIsAvailable.set(true);
         }
 
         @Override
         protected Void doInBackground(UpdateData... params) {
-            final List<SearchIndexableData> dataToUpdate = params[0].dataToUpdate;
-            final List<SearchIndexableData> dataToDelete = params[0].dataToDelete;
-            final Map<String, List<String>> nonIndexableKeys = params[0].nonIndexableKeys;
+            Trace.beginSection("Index.update");
+            try {
+                final String localeStr = Locale.getDefault().toString();
+                if (params[0].fullUpdate && !collectRemoteIndexables(mContext, params[0],
+                        BackgroundExecutor.PRIORITY_VISIBLE)) {
+                    // Keep the rows of the providers that did not answer
+                    params[0].fullUpdate = false;
+                }
+                final boolean indexed = processUpdateData(params[0], localeStr,
+                        BackgroundExecutor.PRIORITY_VISIBLE);
+
+                if (indexed && !params[0].forceUpdate) {
+                    mIndexedLocale = localeStr;
+                    if (addRecentLocale(localeStr) > 1) {
+                        // Keep the other recent locales indexed, when the device is idle
+                        SearchIndexJobService.schedule(mContext);
+                    }
+                }
+            } finally {
+                Trace.endSection();
+            }
+            return null;
+        }
 
-            final boolean forceUpdate = params[0].forceUpdate;
+        /**
+         * Index the given data for a locale, in a single transaction.
+         *
+         * @param priority the {@link BackgroundExecutor} priority the data is parsed with.
+         * @return true if the data has been indexed, false if the transaction was rolled back.
+         */
+        public boolean processUpdateData(UpdateData updateData, String localeStr,
+                int priority) {
+            final long start = System.nanoTime();
+            final List<SearchIndexableData> dataToUpdate = updateData.dataToUpdate;
+            final List<SearchIndexableData> dataToDelete = updateData.dataToDelete;
+            final Map<String, List<String>> nonIndexableKeys = updateData.nonIndexableKeys;
+
+            final boolean forceUpdate = updateData.forceUpdate;
+            final boolean fullUpdate = updateData.fullUpdate;
 
             final SQLiteDatabase database = getWritableDatabase();
-            final String localeStr = Locale.getDefault().toString();
 
+            IndexRowWriter writer = null;
+            boolean success = false;
             try {
                 database.beginTransaction();
                 if (dataToDelete.size() > 0) {
                     processDataToDelete(database, localeStr, dataToDelete);
                 }
                 if (dataToUpdate.size() > 0) {
-                    processDataToUpdate(database, localeStr, dataToUpdate, nonIndexableKeys,
-                            forceUpdate);
+                    writer = new IndexRowWriter(database);
+                    processDataToUpdate(database, writer, localeStr, dataToUpdate,
+                            nonIndexableKeys, forceUpdate, fullUpdate, priority);
                 }
                 database.setTransactionSuccessful();
+                success = true;
+            } catch (InterruptedException e) {
+                Log.w(LOG_TAG, "Interrupted while indexing locale: " + localeStr);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Cannot index locale: " + localeStr, e);
             } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+                // Without success, the rows and fingerprints written so far are rolled back
                 database.endTransaction();
             }
+            mMetrics.recordLatency(SearchMetrics.OP_UPDATE, System.nanoTime() - start);
+            return success;
+        }
 
-            return null;
+        private void processDataToUpdate(SQLiteDatabase database, IndexRowWriter writer,
+                String localeStr, List<SearchIndexableData> dataToUpdate,
+                Map<String, List<String>> nonIndexableKeys, boolean forceUpdate,
+                boolean fullUpdate, int priority)
+                throws InterruptedException, ExecutionException {
+
+            final long current = System.currentTimeMillis();
+
+            if (forceUpdate) {
+                // Forced updates are partial and driven by a dynamic state change: they are
+                // not covered by the fingerprints, so just index what we have been given.
+                indexData(writer, localeStr, dataToUpdate, nonIndexableKeys, priority);
+            } else {
+                final int indexed = processChangedProviders(database, writer, localeStr,
+                        dataToUpdate, nonIndexableKeys, fullUpdate, priority);
+                if (indexed == 0) {
+                    Log.d(LOG_TAG, "Locale '" + localeStr + "' is already indexed");
+                    return;
+                }
+                Log.d(LOG_TAG, "Re-indexed " + indexed + " changed provider(s)");
+            }
+
+            final long now = System.currentTimeMillis();
+            Log.d(LOG_TAG, "Indexing locale '" + localeStr + "' took " +
+                    (now - current) + " millis");
         }
 
-        private boolean processDataToUpdate(SQLiteDatabase database, String localeStr,
-                List<SearchIndexableData> dataToUpdate, Map<String, List<String>> nonIndexableKeys,
-                boolean forceUpdate) {
+        /**
+         * Index only the providers whose fingerprint changed since they were last indexed for
+         * this locale, and forget about the ones that are gone if this is a full update.
+         *
+         * @return the number of providers that have been (re)indexed or removed.
+         */
+        private int processChangedProviders(SQLiteDatabase database, IndexRowWriter writer,
+                String localeStr, List<SearchIndexableData> dataToUpdate,
+                Map<String, List<String>> nonIndexableKeys, boolean fullUpdate, int priority)
+                throws InterruptedException, ExecutionException {
+
+            final Map<String, Long> indexedFingerprints = getFingerprints(database, localeStr);
+            final Map<String, List<SearchIndexableData>> dataByProvider =
+                    groupByProviderKey(dataToUpdate);
+            final Map<String, PackageInfo> packageInfos = new HashMap<String, PackageInfo>();
+            final List<SearchIndexableData> changedData = new ArrayList<SearchIndexableData>();
+            final Map<String, Long> changedFingerprints = new HashMap<String, Long>();
+
+            int processed = 0;
+            for (Map.Entry<String, List<SearchIndexableData>> entry : dataByProvider.entrySet()) {
+                final String providerKey = entry.getKey();
+                final List<SearchIndexableData> providerData = entry.getValue();
+
+                final long fingerprint =
+                        computeFingerprint(providerData, nonIndexableKeys, packageInfos);
+                final Long indexedFingerprint = indexedFingerprints.remove(providerKey);
+                if (indexedFingerprint != null && indexedFingerprint == fingerprint) {
+                    continue;
+                }
+                if (indexedFingerprint != null) {
+                    deleteProviderRows(database, localeStr, providerKey);
+                }
 
-            if (!forceUpdate && isLocaleAlreadyIndexed(database, localeStr)) {
-                Log.d(LOG_TAG, "Locale '" + localeStr + "' is already indexed");
-                return true;
+                changedData.addAll(providerData);
+                changedFingerprints.put(providerKey, fingerprint);
+                processed++;
             }
 
-            boolean result = false;
-            final long current = System.currentTimeMillis();
+            final Set<String> failedProviderKeys =
+                    indexData(writer, localeStr, changedData, nonIndexableKeys, priority);
+
+            // The fingerprints are only committed along with the rows. A provider that could
+            // not be parsed keeps no rows and no fingerprint, so the next update retries it.
+            for (Map.Entry<String, Long> entry : changedFingerprints.entrySet()) {
+                final String providerKey = entry.getKey();
+                if (failedProviderKeys.contains(providerKey)) {
+                    deleteProviderRows(database, localeStr, providerKey);
+                    deleteFingerprint(database, localeStr, providerKey);
+                } else {
+                    putFingerprint(database, localeStr, providerKey, entry.getValue());
+                }
+            }
+
+            if (fullUpdate) {
+                // Whatever is left has not been provided anymore
+                for (String providerKey : indexedFingerprints.keySet()) {
+                    deleteProviderRows(database, localeStr, providerKey);
+                    deleteFingerprint(database, localeStr, providerKey);
+                    processed++;
+                }
+            }
+            return processed;
+        }
+
+        /**
+         * Parse the data (preference XML, SearchIndexProvider) on the {@link BackgroundExecutor}
+         * and write the resulting rows from the calling thread, which holds the transaction.
+         *
+         * @return the keys of the providers whose data could not be parsed.
+         * @throws InterruptedException if interrupted while waiting for the data to be parsed.
+         * @throws ExecutionException if parsing some data failed unexpectedly.
+         */
+        private Set<String> indexData(IndexRowWriter writer, final String localeStr,
+                List<SearchIndexableData> dataToIndex,
+                final Map<String, List<String>> nonIndexableKeys, int priority)
+                throws InterruptedException, ExecutionException {
+            final Set<String> failedProviderKeys =
+                    Collections.synchronizedSet(new HashSet<String>());
+            final int count = dataToIndex.size();
+            if (count <= 1) {
+                for (int n = 0; n < count; n++) {
+                    writeRows(writer, parseData(localeStr, dataToIndex.get(n), nonIndexableKeys,
+                            failedProviderKeys));
+                }
+                return failedProviderKeys;
+            }
 
+            final BackgroundExecutor.Scope scope = BackgroundExecutor.getInstance().newScope();
+            final CompletionService<List<IndexRow>> parsedRows =
+                    new ExecutorCompletionService<List<IndexRow>>(scope.getExecutor(priority));
+            try {
+                for (int n = 0; n < count; n++) {
+                    final SearchIndexableData data = dataToIndex.get(n);
+                    parsedRows.submit(new Callable<List<IndexRow>>() {
+                        @Override
+                        public List<IndexRow> call() {
+                            return parseData(localeStr, data, nonIndexableKeys,
+                                    failedProviderKeys);
+                        }
+                    });
+                }
+                for (int n = 0; n < count; n++) {
+                    writeRows(writer, parsedRows.take().get());
+                }
+            } finally {
+                // Stop parsing what is left if we are not going to write it
+                scope.cancel();
+            }
+            return failedProviderKeys;
+        }
+
+        /**
+         * @return the rows of the data, or none if it could not be parsed: its provider key is
+         * then added to failedProviderKeys.
+         */
+        private List<IndexRow> parseData(String localeStr, SearchIndexableData data,
+                Map<String, List<String>> nonIndexableKeys, Set<String> failedProviderKeys) {
+            final long start = System.nanoTime();
+            final String providerKey = getProviderKey(data);
+            List<IndexRow> rows = new ArrayList<IndexRow>();
+            try {
+                indexOneSearchIndexableData(rows, localeStr, data, nonIndexableKeys);
+            } catch (Exception e) {
+                Log.e(LOG_TAG,
+                        "Cannot index: " + data.className + " for locale: " + localeStr, e);
+                failedProviderKeys.add(providerKey);
+                rows = Collections.emptyList();
+            }
+            final int count = rows.size();
+            for (int n = 0; n < count; n++) {
+                rows.get(n).providerKey = providerKey;
+            }
+            mMetrics.recordProviderCost(providerKey, localeStr, System.nanoTime() - start,
+                    count);
+            return rows;
+        }
+
+        private void writeRows(IndexRowWriter writer, List<IndexRow> rows) {
+            final int count = rows.size();
+            for (int n = 0; n < count; n++) {
+                writer.write(rows.get(n));
+            }
+        }
+
+        private Map<String, List<SearchIndexableData>> groupByProviderKey(
+                List<SearchIndexableData> dataToUpdate) {
+            final Map<String, List<SearchIndexableData>> result =
+                    new HashMap<String, List<SearchIndexableData>>();
             final int count = dataToUpdate.size();
             for (int n = 0; n < count; n++) {
                 final SearchIndexableData data = dataToUpdate.get(n);
-                try {
-                    indexOneSearchIndexableData(database, localeStr, data, nonIndexableKeys);
-                } catch (Exception e) {
-                    Log.e(LOG_TAG,
-                            "Cannot index: " + data.className + " for locale: " + localeStr, e);
+                if (data == null) {
+                    continue;
+                }
+                final String providerKey = getProviderKey(data);
+                List<SearchIndexableData> list = result.get(providerKey);
+                if (list == null) {
+                    list = new ArrayList<SearchIndexableData>();
+                    result.put(providerKey, list);
+                }
+                list.add(data);
+            }
+            return result;
+        }
+
+        private String getProviderKey(SearchIndexableData data) {
+            if (!TextUtils.isEmpty(data.className)) {
+                return data.className;
+            }
+            return PROVIDER_KEY_PACKAGE_PREFIX + data.packageName;
+        }
+
+        private long computeFingerprint(List<SearchIndexableData> providerData,
+                Map<String, List<String>> nonIndexableKeys, Map<String, PackageInfo> packageInfos) {
+            // The XML and the strings of the system image change with the build
+            long fingerprint = mixFingerprint(FINGERPRINT_OFFSET_BASIS, hashOf(Build.FINGERPRINT));
+            final int count = providerData.size();
+            for (int n = 0; n < count; n++) {
+                final SearchIndexableData data = providerData.get(n);
+
+                fingerprint = mixFingerprint(fingerprint, data.rank);
+                fingerprint = mixFingerprint(fingerprint, data.iconResId);
+                fingerprint = mixFingerprint(fingerprint, data.enabled ? 1 : 0);
+                fingerprint = mixFingerprint(fingerprint, hashOf(data.className));
+                fingerprint = mixFingerprint(fingerprint, hashOf(data.intentAction));
+                fingerprint = mixFingerprint(fingerprint, hashOf(data.intentTargetPackage));
+                fingerprint = mixFingerprint(fingerprint, hashOf(data.intentTargetClass));
+
+                if (data instanceof SearchIndexableResource) {
+                    fingerprint = mixFingerprint(fingerprint,
+                            ((SearchIndexableResource) data).xmlResId);
+                } else if (data instanceof SearchIndexableRaw) {
+                    final SearchIndexableRaw raw = (SearchIndexableRaw) data;
+                    fingerprint = mixFingerprint(fingerprint, hashOf(raw.title));
+                    fingerprint = mixFingerprint(fingerprint, hashOf(raw.summaryOn));
+                    fingerprint = mixFingerprint(fingerprint, hashOf(raw.summaryOff));
+                    fingerprint = mixFingerprint(fingerprint, hashOf(raw.entries));
+                    fingerprint = mixFingerprint(fingerprint, hashOf(raw.keywords));
+                    fingerprint = mixFingerprint(fingerprint, hashOf(raw.screenTitle));
+                    fingerprint = mixFingerprint(fingerprint, hashOf(raw.key));
+                    fingerprint = mixFingerprint(fingerprint, raw.userId);
+                }
+
+                final PackageInfo info = getPackageInfo(data.packageName, packageInfos);
+                if (info != null) {
+                    fingerprint = mixFingerprint(fingerprint, info.versionCode);
+                    fingerprint = mixFingerprint(fingerprint, info.lastUpdateTime);
                 }
+
+                final List<String> keys = nonIndexableKeys.get(data.packageName);
+                fingerprint = mixFingerprint(fingerprint, (keys != null) ? keys.hashCode() : 0);
             }
+            return fingerprint;
+        }
 
-            final long now = System.currentTimeMillis();
-            Log.d(LOG_TAG, "Indexing locale '" + localeStr + "' took " +
-                    (now - current) + " millis");
+        private long mixFingerprint(long fingerprint, long value) {
+            for (int n = 0; n < 8; n++) {
+                fingerprint ^= (value & 0xff);
+                fingerprint *= FINGERPRINT_PRIME;
+                value >>>= 8;
+            }
+            return fingerprint;
+        }
+
+        private int hashOf(String value) {
+            return (value != null) ? value.hashCode() : 0;
+        }
+
+        private PackageInfo getPackageInfo(String packageName,
+                Map<String, PackageInfo> packageInfos) {
+            final String name = (packageName != null) ? packageName : mContext.getPackageName();
+            if (packageInfos.containsKey(name)) {
+                return packageInfos.get(name);
+            }
+            PackageInfo info = null;
+            try {
+                info = mContext.getPackageManager().getPackageInfo(name, 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(LOG_TAG, "Cannot find package: " + name);
+            }
+            packageInfos.put(name, info);
+            return info;
+        }
+
+        private Map<String, Long> getFingerprints(SQLiteDatabase database, String locale) {
+            final Map<String, Long> result = new HashMap<String, Long>();
+            Cursor cursor = null;
+            try {
+                cursor = database.query(Tables.TABLE_FINGERPRINTS,
+                        new String[] {
+                                FingerprintColumns.PROVIDER_KEY, FingerprintColumns.FINGERPRINT },
+                        FingerprintColumns.LOCALE + " = ?", new String[] { locale },
+                        null, null, null);
+                while (cursor.moveToNext()) {
+                    result.put(cursor.getString(0), cursor.getLong(1));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
             return result;
         }
 
-        private boolean processDataToDelete(SQLiteDatabase database, String localeStr,
+        private void deleteFingerprint(SQLiteDatabase database, String locale,
+                String providerKey) {
+            database.delete(Tables.TABLE_FINGERPRINTS,
+                    FingerprintColumns.LOCALE + " = ? AND " +
+                            FingerprintColumns.PROVIDER_KEY + " = ?",
+                    new String[] { locale, providerKey });
+        }
+
+        private void putFingerprint(SQLiteDatabase database, String locale, String providerKey,
+                long fingerprint) {
+            final ContentValues values = new ContentValues();
+            values.put(FingerprintColumns.LOCALE, locale);
+            values.put(FingerprintColumns.PROVIDER_KEY, providerKey);
+            values.put(FingerprintColumns.FINGERPRINT, fingerprint);
+            database.replaceOrThrow(Tables.TABLE_FINGERPRINTS, null, values);
+        }
+
+        private int deleteProviderRows(SQLiteDatabase database, String locale,
+                String providerKey) {
+            return database.delete(Tables.TABLE_PREFS_INDEX,
+                    IndexColumns.LOCALE + " = ? AND " + IndexColumns.PROVIDER_KEY + " = ?",
+                    new String[] { locale, providerKey });
+        }
+
+        private void processDataToDelete(SQLiteDatabase database, String localeStr,
                 List<SearchIndexableData> dataToDelete) {
 
-            boolean result = false;
             final long current = System.currentTimeMillis();
 
             final int count = dataToDelete.size();
@@ -1233,6 +2087,10 @@ public class Index {
                 }
                 if (!TextUtils.isEmpty(data.className)) {
                     delete(database, IndexColumns.CLASS_NAME, data.className);
+                    // Other locales have lost their rows too, they need to be indexed again
+                    database.delete(Tables.TABLE_FINGERPRINTS,
+                            FingerprintColumns.PROVIDER_KEY + " = ?",
+                            new String[] { data.className });
                 } else  {
                     if (data instanceof SearchIndexableRaw) {
                         final SearchIndexableRaw raw = (SearchIndexableRaw) data;
@@ -1246,7 +2104,6 @@ public class Index {
             final long now = System.currentTimeMillis();
             Log.d(LOG_TAG, "Deleting data for locale '" + localeStr + "' took " +
                     (now - current) + " millis");
-            return result;
         }
 
         private int delete(SQLiteDatabase database, String columName, String value) {
@@ -1255,66 +2112,72 @@ public class Index {
 
             return database.delete(Tables.TABLE_PREFS_INDEX, whereClause, whereArgs);
         }
-
-        private boolean isLocaleAlreadyIndexed(SQLiteDatabase database, String locale) {
-            Cursor cursor = null;
-            boolean result = false;
-            final StringBuilder sb = new StringBuilder(IndexColumns.LOCALE);
-            sb.append(" = ");
-            DatabaseUtils.appendEscapedSQLString(sb, locale);
-            try {
-                // We care only for 1 row
-                cursor = database.query(Tables.TABLE_PREFS_INDEX, null,
-                        sb.toString(), null, null, null, null, "1");
-                final int count = cursor.getCount();
-                result = (count >= 1);
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-            }
-            return result;
-        }
     }
 
     /**
-     * A basic AsyncTask for saving a Search query into the database
+     * A basic AsyncTask for saving the pending Search queries into the database
      */
-    private class SaveSearchQueryTask extends AsyncTask<String, Void, Long> {
+    private class SaveSearchQueryTask extends AsyncTask<Void, Void, Void> {
 
         @Override
-        protected Long doInBackground(String... params) {
-            final long now = new Date().getTime();
+        protected Void doInBackground(Void... params) {
+            while (true) {
+                final List<String> queries;
+                synchronized (mPendingSavedQueries) {
+                    if (mPendingSavedQueries.isEmpty()) {
+                        mIsSavingQueries = false;
+                        return null;
+                    }
+                    queries = new ArrayList<String>(mPendingSavedQueries);
+                    mPendingSavedQueries.clear();
+                }
+                saveQueries(queries);
+            }
+        }
 
+        private void saveQueries(List<String> queries) {
+            final SQLiteDatabase database;
+            try {
+                database = getWritableDatabase();
+            } catch (SQLiteException e) {
+                Log.e(LOG_TAG, "Cannot open database for saving Search queries", e);
+                return;
+            }
             final ContentValues values = new ContentValues();
-            values.put(IndexDatabaseHelper.SavedQueriesColums.QUERY, params[0]);
-            values.put(IndexDatabaseHelper.SavedQueriesColums.TIME_STAMP, now);
-
-            final SQLiteDatabase database = getWritableDatabase();
 
             long lastInsertedRowId = -1;
             try {
-                // First, delete all saved queries that are the same
-                database.delete(Tables.TABLE_SAVED_QUERIES,
-                        IndexDatabaseHelper.SavedQueriesColums.QUERY + " = ?",
-                        new String[] { params[0] });
-
-                // Second, insert the saved query
-                lastInsertedRowId =
-                        database.insertOrThrow(Tables.TABLE_SAVED_QUERIES, null, values);
+                database.beginTransaction();
+                final int count = queries.size();
+                for (int n = 0; n < count; n++) {
+                    final String query = queries.get(n);
+
+                    // First, delete all saved queries that are the same
+                    database.delete(Tables.TABLE_SAVED_QUERIES,
+                            IndexDatabaseHelper.SavedQueriesColums.QUERY + " = ?",
+                            new String[] { query });
+
+                    // Second, insert the saved query
+                    values.put(IndexDatabaseHelper.SavedQueriesColums.QUERY, query);
+                    values.put(IndexDatabaseHelper.SavedQueriesColums.TIME_STAMP,
+                            new Date().getTime());
+                    lastInsertedRowId =
+                            database.insertOrThrow(Tables.TABLE_SAVED_QUERIES, null, values);
+                }
 
                 // Last, remove "old" saved queries
                 final long delta = lastInsertedRowId - MAX_SAVED_SEARCH_QUERY;
                 if (delta > 0) {
-                    int count = database.delete(Tables.TABLE_SAVED_QUERIES, "rowId <= ?",
+                    int deleted = database.delete(Tables.TABLE_SAVED_QUERIES, "rowId <= ?",
                             new String[] { Long.toString(delta) });
-                    Log.d(LOG_TAG, "Deleted '" + count + "' saved Search query(ies)");
+                    Log.d(LOG_TAG, "Deleted '" + deleted + "' saved Search query(ies)");
                 }
+                database.setTransactionSuccessful();
             } catch (Exception e) {
                 Log.d(LOG_TAG, "Cannot update saved Search queries", e);
+            } finally {
+                database.endTransaction();
             }
-
-            return lastInsertedRowId;
         }
     }
 }
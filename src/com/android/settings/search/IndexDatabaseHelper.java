@@ -27,13 +27,14 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "IndexDatabaseHelper";
 
-    private static final String DATABASE_NAME = "search_index.db";
-    private static final int DATABASE_VERSION = 115;
+    static final String DATABASE_NAME = "search_index.db";
+    private static final int DATABASE_VERSION = 118;
 
     public interface Tables {
         public static final String TABLE_PREFS_INDEX = "prefs_index";
         public static final String TABLE_META_INDEX = "meta_index";
         public static final String TABLE_SAVED_QUERIES = "saved_queries";
+        public static final String TABLE_FINGERPRINTS = "index_fingerprints";
     }
 
     public interface IndexColumns {
@@ -57,6 +58,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         public static final String ENABLED = "enabled";
         public static final String DATA_KEY_REF = "data_key_reference";
         public static final String USER_ID = "user_id";
+        // Fingerprinted provider the row comes from, see Index
+        public static final String PROVIDER_KEY = "provider_key";
     }
 
     public interface MetaColumns {
@@ -68,6 +71,12 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         public static final String TIME_STAMP = "timestamp";
     }
 
+    public interface FingerprintColumns {
+        public static final String LOCALE = "locale";
+        public static final String PROVIDER_KEY = "provider_key";
+        public static final String FINGERPRINT = "fingerprint";
+    }
+
     private static final String CREATE_INDEX_TABLE =
             "CREATE VIRTUAL TABLE " + Tables.TABLE_PREFS_INDEX + " USING fts4" +
                     "(" +
@@ -108,6 +117,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     IndexColumns.DATA_KEY_REF +
                     ", " +
                     IndexColumns.USER_ID +
+                    ", " +
+                    IndexColumns.PROVIDER_KEY +
                     ");";
 
     private static final String CREATE_META_TABLE =
@@ -124,6 +135,19 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     SavedQueriesColums.TIME_STAMP + " INTEGER" +
                     ")";
 
+    private static final String CREATE_FINGERPRINTS_TABLE =
+            "CREATE TABLE " + Tables.TABLE_FINGERPRINTS +
+                    "(" +
+                    FingerprintColumns.LOCALE + " VARCHAR(32) NOT NULL" +
+                    ", " +
+                    FingerprintColumns.PROVIDER_KEY + " TEXT NOT NULL" +
+                    ", " +
+                    FingerprintColumns.FINGERPRINT + " INTEGER NOT NULL" +
+                    ", " +
+                    "PRIMARY KEY (" + FingerprintColumns.LOCALE + ", " +
+                    FingerprintColumns.PROVIDER_KEY + ")" +
+                    ")";
+
     private static final String INSERT_BUILD_VERSION =
             "INSERT INTO " + Tables.TABLE_META_INDEX +
                     " VALUES ('" + Build.VERSION.INCREMENTAL + "');";
@@ -142,6 +166,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     public IndexDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Readers keep seeing the last committed Index while it is being rebuilt
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -153,6 +179,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(CREATE_INDEX_TABLE);
         db.execSQL(CREATE_META_TABLE);
         db.execSQL(CREATE_SAVED_QUERIES_TABLE);
+        db.execSQL(CREATE_FINGERPRINTS_TABLE);
         db.execSQL(INSERT_BUILD_VERSION);
         Log.i(TAG, "Bootstrapped database");
     }
@@ -164,9 +191,11 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         Log.i(TAG, "Using schema version: " + db.getVersion());
 
         if (!Build.VERSION.INCREMENTAL.equals(getBuildVersion(db))) {
-            Log.w(TAG, "Index needs to be rebuilt as build-version is not the same");
-            // We need to drop the tables and recreate them
-            reconstruct(db);
+            Log.w(TAG, "Build-version is not the same, providers will be re-indexed");
+            // The schema did not change (this is handled by onUpgrade), so keep the indexed rows:
+            // the per provider fingerprints include the build fingerprint, so all of them will
+            // be indexed again, one provider at a time.
+            updateBuildVersion(db);
         } else {
             Log.i(TAG, "Index is fine");
         }
@@ -215,9 +244,15 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return version;
     }
 
+    private void updateBuildVersion(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + Tables.TABLE_META_INDEX);
+        db.execSQL(INSERT_BUILD_VERSION);
+    }
+
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_META_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PREFS_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SAVED_QUERIES);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_FINGERPRINTS);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-memory prefix trie of the saved search queries, used for proposing suggestions without
+ * querying the database.
+ *
+ * Matching is case insensitive and the most recent queries come first. The trie holds at most a
+ * given number of queries: the oldest ones are evicted first.
+ */
+final class SavedQueryTrie {
+
+    private static final class Entry {
+        public final String query;
+        public final String key;
+        public long sequence;
+
+        public Entry(String query, long sequence) {
+            this.query = query;
+            this.key = query.toLowerCase(Locale.ROOT);
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Node {
+        public final SparseArray<Node> children = new SparseArray<Node>();
+        // All the entries of this sub-tree
+        public final List<Entry> entries = new ArrayList<Entry>();
+    }
+
+    private static final Comparator<Entry> MOST_RECENT_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return (lhs.sequence < rhs.sequence) ? 1 : ((lhs.sequence > rhs.sequence) ? -1 : 0);
+        }
+    };
+
+    private final int mMaxSize;
+    private final Node mRoot = new Node();
+    // Entries by query, from the oldest to the most recent one
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+    private long mSequence;
+    private boolean mLoaded;
+
+    public SavedQueryTrie(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    public synchronized void setLoaded() {
+        mLoaded = true;
+    }
+
+    /**
+     * Add a query as the most recent one, or refresh it if it is already known.
+     */
+    public synchronized void add(String query) {
+        if (query == null) {
+            return;
+        }
+        Entry entry = mEntries.remove(query);
+        if (entry != null) {
+            entry.sequence = ++mSequence;
+        } else {
+            entry = new Entry(query, ++mSequence);
+            insert(entry);
+        }
+        mEntries.put(query, entry);
+
+        while (mEntries.size() > mMaxSize) {
+            final Iterator<Entry> it = mEntries.values().iterator();
+            final Entry oldest = it.next();
+            it.remove();
+            remove(oldest);
+        }
+    }
+
+    /**
+     * Return the most recent queries starting with the given prefix.
+     *
+     * @param prefix the prefix, an empty or null prefix matching all the queries.
+     * @param maxCount the max number of queries to return.
+     */
+    public synchronized List<String> getSuggestions(String prefix, int maxCount) {
+        Node node = mRoot;
+        if (prefix != null) {
+            final String key = prefix.toLowerCase(Locale.ROOT);
+            final int length = key.length();
+            for (int n = 0; n < length && node != null; n++) {
+                node = node.children.get(key.charAt(n));
+            }
+        }
+        if (node == null) {
+            return Collections.<String>emptyList();
+        }
+
+        final List<Entry> entries = new ArrayList<Entry>(node.entries);
+        Collections.sort(entries, MOST_RECENT_FIRST);
+
+        final int count = Math.min(maxCount, entries.size());
+        final List<String> result = new ArrayList<String>(count);
+        for (int n = 0; n < count; n++) {
+            result.add(entries.get(n).query);
+        }
+        return result;
+    }
+
+    private void insert(Entry entry) {
+        Node node = mRoot;
+        node.entries.add(entry);
+        final int length = entry.key.length();
+        for (int n = 0; n < length; n++) {
+            final char c = entry.key.charAt(n);
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node();
+                node.children.put(c, child);
+            }
+            child.entries.add(entry);
+            node = child;
+        }
+    }
+
+    private void remove(Entry entry) {
+        Node node = mRoot;
+        node.entries.remove(entry);
+        final int length = entry.key.length();
+        for (int n = 0; n < length; n++) {
+            final char c = entry.key.charAt(n);
+            final Node child = node.children.get(c);
+            if (child == null) {
+                return;
+            }
+            child.entries.remove(entry);
+            if (child.entries.isEmpty()) {
+                // Nothing left below this node
+                node.children.remove(c);
+                return;
+            }
+            node = child;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Job pre-indexing the recently used locales other than the current one, while the device is
+ * idle and charging, so that switching back to one of them does not trigger a full re-index.
+ */
+public class SearchIndexJobService extends JobService {
+
+    private static final String LOG_TAG = "SearchIndexJobService";
+
+    private static final int JOB_ID_SECONDARY_LOCALES = 0x5e1d;
+
+    private PreIndexTask mTask;
+
+    /**
+     * Schedule the pre-indexing of the secondary locales, replacing any pending one.
+     */
+    public static void schedule(Context context) {
+        final JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        final JobInfo job = new JobInfo.Builder(JOB_ID_SECONDARY_LOCALES,
+                new ComponentName(context, SearchIndexJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build();
+        scheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        // Use the serial executor, so that this does not run along an update of the Index
+        mTask = new PreIndexTask(Index.getInstance(getApplicationContext()), params);
+        mTask.execute();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        // Retry next time the device is idle
+        return true;
+    }
+
+    private class PreIndexTask extends AsyncTask<Void, Void, Void> {
+        private final Index mIndex;
+        private final JobParameters mParams;
+
+        public PreIndexTask(Index index, JobParameters params) {
+            mIndex = index;
+            mParams = params;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            if (isCancelled()) {
+                return null;
+            }
+            try {
+                mIndex.updateSecondaryLocales();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Cannot pre-index secondary locales", e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mTask = null;
+            jobFinished(mParams, false);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import com.android.settings.DataUsageSummary;
+import com.android.settings.DevelopmentSettings;
+import com.android.settings.DeviceInfoSettings;
+import com.android.settings.DisplaySettings;
+import com.android.settings.HomeSettings;
+import com.android.settings.PrivacySettings;
+import com.android.settings.ScreenPinningSettings;
+import com.android.settings.SecuritySettings;
+import com.android.settings.WallpaperTypeSettings;
+import com.android.settings.WirelessSettings;
+import com.android.settings.accessibility.AccessibilitySettings;
+import com.android.settings.bluetooth.BluetoothSettings;
+import com.android.settings.deviceinfo.Memory;
+import com.android.settings.du.AmbientSettings;
+import com.android.settings.inputmethod.InputMethodAndLanguageSettings;
+import com.android.settings.net.DataUsageMeteredSettings;
+import com.android.settings.notification.NotificationSettings;
+import com.android.settings.notification.OtherSoundSettings;
+import com.android.settings.notification.ZenModeSettings;
+import com.android.settings.print.PrintSettingsFragment;
+import com.android.settings.sim.SimSettings;
+import com.android.settings.users.UserSettings;
+import com.android.settings.voice.VoiceInputSettings;
+import com.android.settings.wifi.SavedAccessPointsWifiSettings;
+import com.android.settings.wifi.WifiSettings;
+
+/**
+ * Static registry of the local {@link Indexable.SearchIndexProvider}s, by fragment class name.
+ *
+ * Providers are looked up without any reflection, and a fragment class is only loaded when its
+ * provider is actually asked for: fragments whose data has not changed since the last indexing
+ * are never loaded. Any fragment of {@link SearchIndexableResources} declaring a
+ * SEARCH_INDEX_DATA_PROVIDER field must be listed here.
+ */
+public final class SearchIndexProviderRegistry {
+
+    private SearchIndexProviderRegistry() {
+    }
+
+    /**
+     * Return the provider of a fragment, or null if the fragment does not have any.
+     */
+    public static Indexable.SearchIndexProvider getProvider(String className) {
+        if (className == null) {
+            return null;
+        }
+        // Class names are constants so that the fragment classes are not loaded by the lookup
+        switch (className) {
+            case "com.android.settings.DataUsageSummary":
+                return DataUsageSummary.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.DevelopmentSettings":
+                return DevelopmentSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.DeviceInfoSettings":
+                return DeviceInfoSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.DisplaySettings":
+                return DisplaySettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.HomeSettings":
+                return HomeSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.PrivacySettings":
+                return PrivacySettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.ScreenPinningSettings":
+                return ScreenPinningSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.SecuritySettings":
+                return SecuritySettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.WallpaperTypeSettings":
+                return WallpaperTypeSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.WirelessSettings":
+                return WirelessSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.accessibility.AccessibilitySettings":
+                return AccessibilitySettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.bluetooth.BluetoothSettings":
+                return BluetoothSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.deviceinfo.Memory":
+                return Memory.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.du.AmbientSettings":
+                return AmbientSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.inputmethod.InputMethodAndLanguageSettings":
+                return InputMethodAndLanguageSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.net.DataUsageMeteredSettings":
+                return DataUsageMeteredSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.notification.NotificationSettings":
+                return NotificationSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.notification.OtherSoundSettings":
+                return OtherSoundSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.notification.ZenModeSettings":
+                return ZenModeSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.print.PrintSettingsFragment":
+                return PrintSettingsFragment.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.sim.SimSettings":
+                return SimSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.users.UserSettings":
+                return UserSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.voice.VoiceInputSettings":
+                return VoiceInputSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.wifi.SavedAccessPointsWifiSettings":
+                return SavedAccessPointsWifiSettings.SEARCH_INDEX_DATA_PROVIDER;
+            case "com.android.settings.wifi.WifiSettings":
+                return WifiSettings.SEARCH_INDEX_DATA_PROVIDER;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Metrics of the search Index: latencies of the recent operations and indexing cost of each
+ * provider, as last measured.
+ */
+final class SearchMetrics {
+
+    public static final String OP_SEARCH = "search";
+    public static final String OP_SUGGESTIONS = "suggestions";
+    public static final String OP_UPDATE = "update";
+
+    // Number of recent samples the latency percentiles are computed from
+    private static final int MAX_SAMPLES = 256;
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private static final class Latencies {
+        public final long[] samples = new long[MAX_SAMPLES];
+        public int next;
+        public int size;
+        public long total;
+
+        public void add(long micros) {
+            samples[next] = micros;
+            next = (next + 1) % MAX_SAMPLES;
+            size = Math.min(size + 1, MAX_SAMPLES);
+            total++;
+        }
+    }
+
+    private static final class ProviderCost {
+        public String locale;
+        public long micros;
+        public int rows;
+    }
+
+    private final Map<String, Latencies> mLatencies = new LinkedHashMap<String, Latencies>();
+    private final Map<String, ProviderCost> mProviderCosts = new TreeMap<String, ProviderCost>();
+
+    /**
+     * Record the duration of an operation.
+     */
+    public synchronized void recordLatency(String operation, long nanos) {
+        Latencies latencies = mLatencies.get(operation);
+        if (latencies == null) {
+            latencies = new Latencies();
+            mLatencies.put(operation, latencies);
+        }
+        latencies.add(nanos / NANOS_PER_MICRO);
+    }
+
+    /**
+     * Record the time taken for parsing the data of a provider, and the rows it produced.
+     */
+    public synchronized void recordProviderCost(String providerKey, String locale, long nanos,
+            int rows) {
+        ProviderCost cost = mProviderCosts.get(providerKey);
+        if (cost == null) {
+            cost = new ProviderCost();
+            mProviderCosts.put(providerKey, cost);
+        }
+        cost.locale = locale;
+        cost.micros = nanos / NANOS_PER_MICRO;
+        cost.rows = rows;
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.println("Latencies (ms, last " + MAX_SAMPLES + " samples):");
+        for (Map.Entry<String, Latencies> entry : mLatencies.entrySet()) {
+            final Latencies latencies = entry.getValue();
+            final long[] sorted = Arrays.copyOf(latencies.samples, latencies.size);
+            Arrays.sort(sorted);
+            pw.print(prefix); pw.print("  "); pw.print(entry.getKey());
+            pw.print(": count="); pw.print(latencies.total);
+            pw.print(" p50="); pw.print(formatMillis(percentile(sorted, 50)));
+            pw.print(" p95="); pw.print(formatMillis(percentile(sorted, 95)));
+            pw.print(" p99="); pw.print(formatMillis(percentile(sorted, 99)));
+            pw.print(" max="); pw.println(formatMillis(percentile(sorted, 100)));
+        }
+
+        pw.print(prefix); pw.println("Providers (last indexing):");
+        long totalMicros = 0;
+        int totalRows = 0;
+        for (Map.Entry<String, ProviderCost> entry : mProviderCosts.entrySet()) {
+            final ProviderCost cost = entry.getValue();
+            pw.print(prefix); pw.print("  "); pw.print(entry.getKey());
+            pw.print(" ["); pw.print(cost.locale); pw.print("]");
+            pw.print(": "); pw.print(formatMillis(cost.micros));
+            pw.print(" ms, "); pw.print(cost.rows); pw.println(" rows");
+            totalMicros += cost.micros;
+            totalRows += cost.rows;
+        }
+        pw.print(prefix); pw.print("  total: "); pw.print(formatMillis(totalMicros));
+        pw.print(" ms, "); pw.print(totalRows); pw.println(" rows");
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format("%d.%03d", micros / 1000, micros % 1000);
+    }
+}
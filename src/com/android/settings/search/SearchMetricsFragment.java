@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search;
+
+import android.app.Fragment;
+import android.content.Context;
+import android.graphics.Typeface;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.android.settings.R;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Debug screen showing the metrics of the search Index, as printed by {@link Index#dump}.
+ */
+public class SearchMetricsFragment extends Fragment {
+
+    private TextView mTextView;
+    private DumpTask mDumpTask;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        final ScrollView scrollView = new ScrollView(inflater.getContext());
+        mTextView = new TextView(inflater.getContext());
+        mTextView.setTypeface(Typeface.MONOSPACE);
+        mTextView.setTextIsSelectable(true);
+        final int padding = getResources().getDimensionPixelSize(R.dimen.content_margin_left);
+        mTextView.setPadding(padding, padding, padding, padding);
+        scrollView.addView(mTextView);
+        return scrollView;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        mDumpTask = new DumpTask(getActivity().getApplicationContext());
+        mDumpTask.execute();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        if (mDumpTask != null) {
+            mDumpTask.cancel(false);
+            mDumpTask = null;
+        }
+    }
+
+    private class DumpTask extends AsyncTask<Void, Void, String> {
+        // Taken on the main thread: the fragment may be detached while dumping
+        private final Context mContext;
+
+        public DumpTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            final StringWriter writer = new StringWriter();
+            final PrintWriter pw = new PrintWriter(writer);
+            Index.getInstance(mContext).dump(pw);
+            pw.flush();
+            return writer.toString();
+        }
+
+        @Override
+        protected void onPostExecute(String result) {
+            mTextView.setText(result);
+        }
+    }
+}
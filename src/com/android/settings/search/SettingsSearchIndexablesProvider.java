@@ -21,6 +21,8 @@ import android.database.MatrixCursor;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesProvider;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Collection;
 
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_RANK;
@@ -72,4 +74,13 @@ public class SettingsSearchIndexablesProvider extends SearchIndexablesProvider {
         MatrixCursor cursor = new MatrixCursor(NON_INDEXABLES_KEYS_COLUMNS);
         return cursor;
     }
+
+    /**
+     * Dump the search Index metrics, with:
+     * adb shell dumpsys activity provider com.android.settings/.search.SettingsSearchIndexablesProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        Index.getInstance(getContext()).dump(writer);
+    }
 }
@@ -24,6 +24,7 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.admin.DevicePolicyManager;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -56,6 +57,7 @@ import android.widget.SimpleAdapter;
 
 import com.android.internal.util.UserIcons;
 import com.android.internal.widget.LockPatternUtils;
+import com.android.settings.CacheRegistry;
 import com.android.settings.ChooseLockGeneric;
 import com.android.settings.OwnerInfoSettings;
 import com.android.settings.R;
@@ -135,7 +137,28 @@ public class UserSettings extends SettingsPreferenceFragment
 
     private final Object mUserLock = new Object();
     private UserManager mUserManager;
-    private SparseArray<Bitmap> mUserIcons = new SparseArray<Bitmap>();
+    // Written by the icon loader and trimmed from the main thread: always accessed locked
+    private final SparseArray<Bitmap> mUserIcons = new SparseArray<Bitmap>();
+
+    // Missing icons are loaded again by updateUserList() when resuming
+    private final CacheRegistry.TrimmableCache mUserIconsTrimmer =
+            new CacheRegistry.TrimmableCache() {
+        @Override
+        public void trimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                synchronized (mUserIcons) {
+                    mUserIcons.clear();
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (mUserIcons) {
+                return mUserIcons.size();
+            }
+        }
+    };
 
     private EditUserInfoController mEditUserInfoController =
             new EditUserInfoController();
@@ -168,7 +191,9 @@ public class UserSettings extends SettingsPreferenceFragment
             } else if (intent.getAction().equals(Intent.ACTION_USER_INFO_CHANGED)) {
                 int userHandle = intent.getIntExtra(Intent.EXTRA_USER_HANDLE, -1);
                 if (userHandle != -1) {
-                    mUserIcons.remove(userHandle);
+                    synchronized (mUserIcons) {
+                        mUserIcons.remove(userHandle);
+                    }
                 }
             }
             mHandler.sendEmptyMessage(MESSAGE_UPDATE_LIST);
@@ -178,6 +203,8 @@ public class UserSettings extends SettingsPreferenceFragment
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
+        CacheRegistry.getInstance(getActivity()).register("UserSettings.mUserIcons",
+                mUserIconsTrimmer);
 
         if (icicle != null) {
             if (icicle.containsKey(SAVE_ADDING_USER)) {
@@ -326,7 +353,9 @@ public class UserSettings extends SettingsPreferenceFragment
         Bitmap b = mUserManager.getUserIcon(myUserId);
         if (b != null) {
             mMePreference.setIcon(encircle(b));
-            mUserIcons.put(myUserId, b);
+            synchronized (mUserIcons) {
+                mUserIcons.put(myUserId, b);
+            }
         }
     }
 
@@ -750,7 +779,11 @@ public class UserSettings extends SettingsPreferenceFragment
                 pref.setSummary(R.string.user_summary_restricted_profile);
             }
             if (user.iconPath != null) {
-                if (mUserIcons.get(user.id) == null) {
+                final boolean iconLoaded;
+                synchronized (mUserIcons) {
+                    iconLoaded = mUserIcons.get(user.id) != null;
+                }
+                if (!iconLoaded) {
                     // Icon not loaded yet, print a placeholder
                     missingIcons.add(user.id);
                     pref.setIcon(getEncircledDefaultIcon());
@@ -823,7 +856,9 @@ public class UserSettings extends SettingsPreferenceFragment
                         bitmap = UserIcons.convertToBitmap(UserIcons.getDefaultUserIcon(userId,
                                 /* light= */ false));
                     }
-                    mUserIcons.append(userId, bitmap);
+                    synchronized (mUserIcons) {
+                        mUserIcons.append(userId, bitmap);
+                    }
                 }
                 return null;
             }
@@ -851,7 +886,10 @@ public class UserSettings extends SettingsPreferenceFragment
     }
 
     private void setPhotoId(Preference pref, UserInfo user) {
-        Bitmap bitmap = mUserIcons.get(user.id);
+        final Bitmap bitmap;
+        synchronized (mUserIcons) {
+            bitmap = mUserIcons.get(user.id);
+        }
         if (bitmap != null) {
             pref.setIcon(encircle(bitmap));
         }
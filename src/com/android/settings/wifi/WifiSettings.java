@@ -60,6 +60,7 @@ import android.widget.Toast;
 import com.android.settings.R;
 import com.android.settings.RestrictedSettingsFragment;
 import com.android.settings.SettingsActivity;
+import com.android.settings.dashboard.TileSummaryProvider;
 import com.android.settings.search.BaseSearchIndexProvider;
 import com.android.settings.search.Indexable;
 import com.android.settings.search.SearchIndexableRaw;
@@ -984,6 +985,25 @@ public class WifiSettings extends RestrictedSettingsFragment
         return R.string.help_url_wifi;
     }
 
+    /**
+     * Show the network Wi-Fi is connected to in the dashboard.
+     */
+    public static final TileSummaryProvider SUMMARY_PROVIDER = new TileSummaryProvider() {
+        @Override
+        public CharSequence getSummary(Context context) {
+            final WifiManager wifiManager =
+                    (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            if (!wifiManager.isWifiEnabled()) {
+                return null;
+            }
+            final WifiInfo info = wifiManager.getConnectionInfo();
+            if (info == null || info.getNetworkId() == WifiConfiguration.INVALID_NETWORK_ID) {
+                return null;
+            }
+            return AccessPoint.removeDoubleQuotes(info.getSSID());
+        }
+    };
+
     public static final SearchIndexProvider SEARCH_INDEX_DATA_PROVIDER =
         new BaseSearchIndexProvider() {
             @Override
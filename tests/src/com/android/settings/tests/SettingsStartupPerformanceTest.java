@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.tests;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.InstrumentationTestRunner;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+
+import com.android.settings.Settings;
+import com.android.settings.dashboard.DashboardTileView;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the Settings dashboard takes to show its first tile, and to become
+ * interactive (the main thread being idle for the first time after that).
+ *
+ * New activity launches create a new activity, warm launches bring the existing one back to
+ * front. The test runs in the Settings process, so neither measures a cold start of the process.
+ *
+ * The percentiles are reported as instrumentation status. As the times depend on the device, the
+ * test only fails when a 90th percentile is over a limit given as argument. The number of
+ * iterations and the limits (in ms) are given as arguments:
+ *
+ * adb shell am instrument -w -e class com.android.settings.tests.SettingsStartupPerformanceTest
+ *     -e iterations 20 -e max_new_activity_first_tile_ms 800
+ *     com.android.settings.tests/android.test.InstrumentationTestRunner
+ */
+public class SettingsStartupPerformanceTest extends InstrumentationTestCase {
+
+    private static final String LOG_TAG = "SettingsStartupPerformance";
+
+    private static final String ARG_ITERATIONS = "iterations";
+    private static final String ARG_MAX_NEW_ACTIVITY_FIRST_TILE_MS =
+            "max_new_activity_first_tile_ms";
+    private static final String ARG_MAX_NEW_ACTIVITY_INTERACTIVE_MS =
+            "max_new_activity_interactive_ms";
+    private static final String ARG_MAX_WARM_FIRST_TILE_MS = "max_warm_first_tile_ms";
+    private static final String ARG_MAX_WARM_INTERACTIVE_MS = "max_warm_interactive_ms";
+
+    private static final int DEFAULT_ITERATIONS = 10;
+
+    // Limit of a 90th percentile when none is given
+    private static final long NO_LIMIT = -1;
+
+    private static final long LAUNCH_TIMEOUT_MS = 10000;
+    // Time given to Settings for being stopped once in the background
+    private static final long SETTLE_TIME_MS = 1000;
+
+    private Activity mLastActivity;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mLastActivity != null) {
+            mLastActivity.finish();
+            mLastActivity = null;
+        }
+        super.tearDown();
+    }
+
+    public void testNewActivityLaunch() throws Exception {
+        measureLaunches(true, getLongArgument(ARG_MAX_NEW_ACTIVITY_FIRST_TILE_MS, NO_LIMIT),
+                getLongArgument(ARG_MAX_NEW_ACTIVITY_INTERACTIVE_MS, NO_LIMIT));
+    }
+
+    public void testWarmLaunch() throws Exception {
+        measureLaunches(false, getLongArgument(ARG_MAX_WARM_FIRST_TILE_MS, NO_LIMIT),
+                getLongArgument(ARG_MAX_WARM_INTERACTIVE_MS, NO_LIMIT));
+    }
+
+    /**
+     * @param newActivity whether each launch creates a new activity.
+     * @param maxFirstTileMs the limit of the 90th percentile of the time to first tile, or
+     *         {@link #NO_LIMIT}.
+     * @param maxInteractiveMs the limit of the 90th percentile of the time to interactive, or
+     *         {@link #NO_LIMIT}.
+     */
+    private void measureLaunches(boolean newActivity, long maxFirstTileMs,
+            long maxInteractiveMs) throws Exception {
+        final int iterations = (int) getLongArgument(ARG_ITERATIONS, DEFAULT_ITERATIONS);
+        final long[] firstTileTimes = new long[iterations];
+        final long[] interactiveTimes = new long[iterations];
+
+        if (!newActivity) {
+            // The activity brought back to front by the warm launches
+            launch(false);
+            goHome();
+        }
+
+        for (int n = 0; n < iterations; n++) {
+            final long[] times = launch(newActivity);
+            firstTileTimes[n] = times[0];
+            interactiveTimes[n] = times[1];
+            goHome();
+        }
+
+        final String prefix = newActivity ? "new_activity" : "warm";
+        final Bundle results = new Bundle();
+        final long firstTileP90 = report(results, prefix + "_first_tile", firstTileTimes);
+        final long interactiveP90 = report(results, prefix + "_interactive", interactiveTimes);
+        getInstrumentation().sendStatus(Activity.RESULT_OK, results);
+
+        if (maxFirstTileMs != NO_LIMIT) {
+            assertTrue(prefix + " time to first tile p90 is " + firstTileP90 + " ms, over "
+                    + maxFirstTileMs + " ms", firstTileP90 <= maxFirstTileMs);
+        }
+        if (maxInteractiveMs != NO_LIMIT) {
+            assertTrue(prefix + " time to interactive p90 is " + interactiveP90 + " ms, over "
+                    + maxInteractiveMs + " ms", interactiveP90 <= maxInteractiveMs);
+        }
+    }
+
+    /**
+     * Launch the dashboard and return the time to first tile and the time to interactive.
+     *
+     * @param newActivity whether a new activity should be created, rather than bringing the
+     *         existing one back to front.
+     */
+    private long[] launch(boolean newActivity) throws Exception {
+        final Instrumentation instrumentation = getInstrumentation();
+        final Context context = instrumentation.getTargetContext();
+        final Application application = (Application) context.getApplicationContext();
+
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        intent.setClassName(context, Settings.class.getName());
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        if (newActivity) {
+            intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        } else {
+            intent.addFlags(Intent.FLAG_ACTIVITY_RESET_TASK_IF_NEEDED);
+        }
+
+        final LaunchTracker tracker = new LaunchTracker();
+        application.registerActivityLifecycleCallbacks(tracker);
+        try {
+            final long start = SystemClock.uptimeMillis();
+            context.startActivity(intent);
+            assertTrue("Timed out waiting for the first tile",
+                    tracker.mFirstTileLatch.await(LAUNCH_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertTrue("Timed out waiting for the dashboard to be interactive",
+                    tracker.mInteractiveLatch.await(LAUNCH_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            mLastActivity = tracker.mActivity;
+            return new long[] { tracker.mFirstTileTime - start, tracker.mInteractiveTime - start };
+        } finally {
+            application.unregisterActivityLifecycleCallbacks(tracker);
+        }
+    }
+
+    private void goHome() {
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.addCategory(Intent.CATEGORY_HOME);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        getInstrumentation().getTargetContext().startActivity(intent);
+        getInstrumentation().waitForIdleSync();
+        SystemClock.sleep(SETTLE_TIME_MS);
+    }
+
+    /**
+     * Add the percentiles of the given times to the results, and return the 90th percentile.
+     */
+    private static long report(Bundle results, String name, long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        final long p50 = percentile(sorted, 50);
+        final long p90 = percentile(sorted, 90);
+        final long p99 = percentile(sorted, 99);
+        final long max = percentile(sorted, 100);
+        results.putLong(name + "_p50_ms", p50);
+        results.putLong(name + "_p90_ms", p90);
+        results.putLong(name + "_p99_ms", p99);
+        results.putLong(name + "_max_ms", max);
+        Log.i(LOG_TAG, name + " (ms): p50=" + p50 + " p90=" + p90 + " p99=" + p99
+                + " max=" + max + " samples=" + Arrays.toString(times));
+        return p90;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private long getLongArgument(String name, long defaultValue) {
+        final Instrumentation instrumentation = getInstrumentation();
+        if (!(instrumentation instanceof InstrumentationTestRunner)) {
+            return defaultValue;
+        }
+        final Bundle arguments = ((InstrumentationTestRunner) instrumentation).getArguments();
+        final String value = arguments != null ? arguments.getString(name) : null;
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Records when the dashboard resumed first draws a tile, and when its main thread is idle
+     * for the first time after that.
+     */
+    private static final class LaunchTracker implements Application.ActivityLifecycleCallbacks {
+        final CountDownLatch mFirstTileLatch = new CountDownLatch(1);
+        final CountDownLatch mInteractiveLatch = new CountDownLatch(1);
+        volatile Activity mActivity;
+        volatile long mFirstTileTime;
+        volatile long mInteractiveTime;
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            if (!(activity instanceof Settings) || mActivity != null) {
+                return;
+            }
+            mActivity = activity;
+
+            final View decorView = activity.getWindow().getDecorView();
+            decorView.getViewTreeObserver().addOnDrawListener(
+                    new ViewTreeObserver.OnDrawListener() {
+                @Override
+                public void onDraw() {
+                    if (mFirstTileTime != 0 || !hasTile(decorView)) {
+                        return;
+                    }
+                    mFirstTileTime = SystemClock.uptimeMillis();
+                    mFirstTileLatch.countDown();
+
+                    // Listeners cannot be removed while being dispatched
+                    final ViewTreeObserver.OnDrawListener listener = this;
+                    decorView.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            decorView.getViewTreeObserver().removeOnDrawListener(listener);
+                        }
+                    });
+                    Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                        @Override
+                        public boolean queueIdle() {
+                            mInteractiveTime = SystemClock.uptimeMillis();
+                            mInteractiveLatch.countDown();
+                            return false;
+                        }
+                    });
+                }
+            });
+        }
+
+        private static boolean hasTile(View view) {
+            if (view instanceof DashboardTileView) {
+                return view.isShown() && view.getWidth() > 0 && view.getHeight() > 0;
+            }
+            if (view instanceof ViewGroup) {
+                final ViewGroup group = (ViewGroup) view;
+                final int count = group.getChildCount();
+                for (int n = 0; n < count; n++) {
+                    if (hasTile(group.getChildAt(n))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}